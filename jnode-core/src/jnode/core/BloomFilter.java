@@ -0,0 +1,112 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.core;
+
+/**
+ * Фильтр Блума по 64-битным ключам. Ложных отрицаний не бывает, ложные
+ * срабатывания - с заданной вероятностью, пока элементов не больше, чем
+ * capacity
+ * 
+ * @author agent
+ * 
+ */
+public class BloomFilter {
+	private final long[] bits;
+	private final long size;
+	private final int hashes;
+	private final int capacity;
+	private int count;
+
+	/**
+	 * @param capacity
+	 *            ожидаемое число элементов
+	 * @param fpp
+	 *            вероятность ложного срабатывания, 0 < fpp < 1
+	 */
+	public BloomFilter(int capacity, double fpp) {
+		if (capacity < 1) {
+			capacity = 1;
+		}
+		long m = (long) Math.ceil(-capacity * Math.log(fpp)
+				/ (Math.log(2) * Math.log(2)));
+		if (m < 64) {
+			m = 64;
+		}
+		this.bits = new long[(int) ((m + 63) / 64)];
+		this.size = bits.length * 64L;
+		this.hashes = Math.max(1,
+				(int) Math.round((double) size / capacity * Math.log(2)));
+		this.capacity = capacity;
+	}
+
+	public void put(long key) {
+		long hash = mix(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= hashes; i++) {
+			long bit = ((h1 + i * h2) & 0x7fffffffL) % size;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+		count++;
+	}
+
+	public boolean mightContain(long key) {
+		long hash = mix(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= hashes; i++) {
+			long bit = ((h1 + i * h2) & 0x7fffffffL) % size;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Элементов больше, чем рассчитано - вероятность ошибки растет
+	 * 
+	 * @return
+	 */
+	public boolean isFull() {
+		return count > capacity;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * fmix64 из MurmurHash3 - перемешивает биты ключа
+	 */
+	private static long mix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
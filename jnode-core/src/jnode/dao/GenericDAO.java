@@ -24,8 +24,9 @@ import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import jnode.logger.Logger;
 import jnode.orm.ORMManager;
@@ -51,14 +52,11 @@ import com.j256.ormlite.table.TableUtils;
  */
 public abstract class GenericDAO<T> {
 
-	private static HashMap<Class<?>, Dao<?, ?>> daoMap;
+	private static final Map<Class<?>, Dao<?, ?>> daoMap = new ConcurrentHashMap<>();
 
 	private final Logger logger = Logger.getLogger(getType());
 
 	protected GenericDAO() throws Exception {
-		if (daoMap == null) {
-			daoMap = new HashMap<>();
-		}
 		if (!daoMap.containsKey(getType())) {
 			Dao<?, ?> dao = DaoManager.createDao(ORMManager.getSource(),
 					getType());
@@ -26,6 +26,8 @@ import com.j256.ormlite.table.DatabaseTable;
 
 import java.util.Date;
 
+import jnode.ftn.types.Ftn2DPacked;
+
 /**
  * @author kreon
  */
@@ -51,8 +53,15 @@ public class Echomail implements Entity, Mail {
 	private String seenBy;
 	@DatabaseField(columnName = "path", dataType = DataType.LONG_STRING)
 	private String path;
+	@DatabaseField(columnName = "seen_by_packed", dataType = DataType.BYTE_ARRAY)
+	private byte[] seenByPacked;
+	@DatabaseField(columnName = "path_packed", dataType = DataType.BYTE_ARRAY)
+	private byte[] pathPacked;
 	@DatabaseField(columnName = "msgid", index = true)
 	private String msgid;
+	/** линк, от которого пришло сообщение - ему оно не отправляется */
+	@DatabaseField(columnName = "source_link_id")
+	private Long sourceLinkId;
 
 	public Long getId() {
 		return id;
@@ -115,7 +124,15 @@ public class Echomail implements Entity, Mail {
 		this.text = text;
 	}
 
+	/**
+	 * SEEN-BY строкой, упакованный разворачивается
+	 * 
+	 * @return
+	 */
 	public String getSeenBy() {
+		if (seenBy == null && seenByPacked != null) {
+			return Ftn2DPacked.toString(seenByPacked);
+		}
 		return seenBy;
 	}
 
@@ -123,7 +140,15 @@ public class Echomail implements Entity, Mail {
 		this.seenBy = seenBy;
 	}
 
+	/**
+	 * PATH строкой, упакованный разворачивается
+	 * 
+	 * @return
+	 */
 	public String getPath() {
+		if (path == null && pathPacked != null) {
+			return Ftn2DPacked.toString(pathPacked);
+		}
 		return path;
 	}
 
@@ -131,6 +156,22 @@ public class Echomail implements Entity, Mail {
 		this.path = path;
 	}
 
+	public byte[] getSeenByPacked() {
+		return seenByPacked;
+	}
+
+	public void setSeenByPacked(byte[] seenByPacked) {
+		this.seenByPacked = seenByPacked;
+	}
+
+	public byte[] getPathPacked() {
+		return pathPacked;
+	}
+
+	public void setPathPacked(byte[] pathPacked) {
+		this.pathPacked = pathPacked;
+	}
+
 	public Date getDate() {
 		return date;
 	}
@@ -148,6 +189,14 @@ public class Echomail implements Entity, Mail {
 		this.msgid = msgid;
 	}
 
+	public Long getSourceLinkId() {
+		return sourceLinkId;
+	}
+
+	public void setSourceLinkId(Long sourceLinkId) {
+		this.sourceLinkId = sourceLinkId;
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder("Echomail{");
@@ -159,8 +208,8 @@ public class Echomail implements Entity, Mail {
 		sb.append(", date=").append(date);
 		sb.append(", subject='").append(subject).append('\'');
 		sb.append(", text='").append(text).append('\'');
-		sb.append(", seenBy='").append(seenBy).append('\'');
-		sb.append(", path='").append(path).append('\'');
+		sb.append(", seenBy='").append(getSeenBy()).append('\'');
+		sb.append(", path='").append(getPath()).append('\'');
 		sb.append('}');
 		return sb.toString();
 	}
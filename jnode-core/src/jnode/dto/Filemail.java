@@ -46,6 +46,12 @@ public class Filemail {
 	private String path;
 	@DatabaseField(dataType = DataType.DATE_LONG)
 	private Date created;
+	@DatabaseField(columnName = "file_crc32")
+	private Long crc32;
+	@DatabaseField(columnName = "file_size")
+	private Long filesize;
+	@DatabaseField(columnName = "file_mtime")
+	private Long mtime;
 
 	public Long getId() {
 		return id;
@@ -119,4 +125,28 @@ public class Filemail {
 		this.created = created;
 	}
 
+	public Long getCrc32() {
+		return crc32;
+	}
+
+	public void setCrc32(Long crc32) {
+		this.crc32 = crc32;
+	}
+
+	public Long getFilesize() {
+		return filesize;
+	}
+
+	public void setFilesize(Long filesize) {
+		this.filesize = filesize;
+	}
+
+	public Long getMtime() {
+		return mtime;
+	}
+
+	public void setMtime(Long mtime) {
+		this.mtime = mtime;
+	}
+
 }
@@ -50,6 +50,11 @@ public class LinkOption {
 	public static final String BOOLEAN_FORWARD_AREAFIX = "forwardareafix";
 	public static final String BOOLEAN_FORWARD_FILEFIX = "forwardfilefix";
 	public static final String LONG_LINK_LEVEL = "level";
+	public static final String LONG_BUNDLE_SIZE = "bundlesize";
+	public static final String LONG_PACKET_SIZE = "packetsize";
+	public static final String LONG_SESSION_SIZE = "sessionsize";
+	public static final String LONG_SESSION_TIME = "sessiontime";
+	public static final String STRING_ZIP_LEVEL = "ziplevel";
 	public static final String SARRAY_LINK_GROUPS = "groups";
 	public static final String STRING_AREAFIX_PWD = "areafixpwd";
 	public static final String STRING_SCRIPTFIX_PWD = "scriptfixpwd";
@@ -81,6 +86,11 @@ public class LinkOption {
 		options.put("filefixpwd", "-ffixpwd");
 		options.put("ouraka", "-oaka");
 		options.put("pause", "-pause");
+		options.put("bundlesize", "-bsize");
+		options.put("packetsize", "-psize");
+		options.put("sessionsize", "-ssize");
+		options.put("sessiontime", "-stime");
+		options.put("ziplevel", "-zlevel");
 		return options;
 	}
 
@@ -32,6 +32,11 @@ public class Subscription {
     private Link link;
     @DatabaseField(columnName = "echoarea_id", foreign = true, uniqueIndexName = "subs_idx")
     private Echoarea area;
+    /**
+     * Последний переданный линку ( или пропущенный ) эхомейл
+     */
+    @DatabaseField(columnName = "lastmail_id", canBeNull = false, defaultValue = "0")
+    private Long lastMailId = 0L;
 
     public Link getLink() {
         return link;
@@ -49,11 +54,20 @@ public class Subscription {
         this.area = area;
     }
 
+    public Long getLastMailId() {
+        return lastMailId;
+    }
+
+    public void setLastMailId(Long lastMailId) {
+        this.lastMailId = lastMailId;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("Subscription{");
         sb.append("link=").append(link);
         sb.append(", area=").append(area);
+        sb.append(", lastMailId=").append(lastMailId);
         sb.append('}');
         return sb.toString();
     }
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.j256.ormlite.dao.GenericRawResults;
+
+import jnode.dto.Echoarea;
+import jnode.dto.Echomail;
+import jnode.dto.EchomailAwaiting;
+import jnode.dto.Link;
+import jnode.dto.LinkOption;
+import jnode.dto.Subscription;
+import jnode.ftn.cache.LinkOptions;
+import jnode.logger.Logger;
+import jnode.orm.ORMManager;
+
+/**
+ * Курсоры доставки эхомейла. Для каждой подписки хранится id последнего
+ * переданного линку письма ( subscription.lastmail_id ), упаковка берет из
+ * подписанных эх все, что новее. Таблица echomailawait осталась для старых
+ * записей и для паузы.
+ * 
+ * Письмо с меньшим id может закоммититься позже письма с большим, поэтому
+ * курсоры не уходят дальше {@link #getSafeId()}: все письма до него уже
+ * видны в базе. Запись эхомейла нужно оборачивать в
+ * {@link #beginWrite()}/{@link #endWrite()}, незакоммиченные id отмечать
+ * через {@link #pending(long)}
+ * 
+ * @author agent
+ * 
+ */
+public final class EchomailCursors {
+	private static final Logger logger = Logger
+			.getLogger(EchomailCursors.class);
+	private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private static final ConcurrentSkipListSet<Long> inflight = new ConcurrentSkipListSet<>();
+
+	private EchomailCursors() {
+	}
+
+	/**
+	 * Начало записи эхомейла - запись может идти из нескольких потоков сразу
+	 */
+	public static void beginWrite() {
+		lock.readLock().lock();
+	}
+
+	public static void endWrite() {
+		lock.readLock().unlock();
+	}
+
+	/**
+	 * Письмо вставлено, но еще не закоммичено
+	 * 
+	 * @param id
+	 */
+	public static void pending(long id) {
+		inflight.add(id);
+	}
+
+	/**
+	 * Письмо закоммичено ( или откачено )
+	 * 
+	 * @param id
+	 */
+	public static void finished(long id) {
+		inflight.remove(id);
+	}
+
+	/**
+	 * Наибольший id, до которого все письма уже закоммичены
+	 * 
+	 * @return
+	 */
+	public static long getSafeId() {
+		lock.writeLock().lock();
+		try {
+			long max = getMaxId();
+			Long first = inflight.ceiling(Long.MIN_VALUE);
+			return (first != null) ? Math.min(max, first - 1) : max;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static long getMaxId() {
+		GenericRawResults<String[]> results = ORMManager.get(Echomail.class)
+				.getRaw("SELECT MAX(id) FROM echomail");
+		if (results == null) {
+			return 0;
+		}
+		try {
+			for (String[] row : results) {
+				if (row[0] != null) {
+					return Long.parseLong(row[0]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			logger.l2("Bad max echomail id", e);
+		} finally {
+			try {
+				results.close();
+			} catch (SQLException ignore) {
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Линки, которым есть что собрать: курсор какой-нибудь подписки отстает
+	 * от {@link #getSafeId()} или есть записи в echomailawait. Один запрос
+	 * MAX(id) на все линки
+	 * 
+	 * @return id линков
+	 */
+	public static Set<Long> getWaitingLinks() {
+		Set<Long> ids = new HashSet<>();
+		readIds(ORMManager.get(Subscription.class).getRaw(
+				"SELECT DISTINCT link_id FROM subscription WHERE lastmail_id < "
+						+ getSafeId()), ids);
+		readIds(ORMManager.get(EchomailAwaiting.class).getRaw(
+				"SELECT DISTINCT link_id FROM echomailawait"), ids);
+		return ids;
+	}
+
+	private static void readIds(GenericRawResults<String[]> results,
+			Set<Long> ids) {
+		if (results == null) {
+			return;
+		}
+		try {
+			for (String[] row : results) {
+				if (row[0] != null) {
+					ids.add(Long.valueOf(row[0]));
+				}
+			}
+		} catch (NumberFormatException e) {
+			logger.l2("Bad link id", e);
+		} finally {
+			try {
+				results.close();
+			} catch (SQLException ignore) {
+			}
+		}
+	}
+
+	/**
+	 * Новая подписка получает только письма, пришедшие после нее
+	 * 
+	 * @param sub
+	 */
+	public static void subscribe(Subscription sub) {
+		sub.setLastMailId(getSafeId());
+	}
+
+	/**
+	 * Все письма линка до id включительно переданы или пропущены
+	 * 
+	 * @param link
+	 * @param id
+	 */
+	public static void advance(Link link, long id) {
+		ORMManager.get(Subscription.class).update("lastmail_id", id,
+				"link_id", "=", link, "lastmail_id", "<", id);
+	}
+
+	/**
+	 * Перескан: линк получит заново письма эхи начиная с firstId. На паузе
+	 * курсор не двигается, письма ставятся в echomailawait
+	 * 
+	 * @param link
+	 * @param area
+	 * @param firstId
+	 */
+	public static void rescan(Link link, Echoarea area, long firstId) {
+		if (isPaused(link)) {
+			for (Echomail mail : ORMManager.get(Echomail.class)
+					.getOrderAnd("id", true, "echoarea_id", "=", area, "id",
+							">=", firstId)) {
+				ORMManager.get(EchomailAwaiting.class).save(
+						new EchomailAwaiting(link, mail));
+			}
+		} else {
+			ORMManager.get(Subscription.class).update("lastmail_id",
+					firstId - 1, "link_id", "=", link, "echoarea_id", "=",
+					area, "lastmail_id", ">=", firstId);
+		}
+	}
+
+	public static boolean isPaused(Link link) {
+		return LinkOptions.forLink(link).getBooleanDefFalse(
+				LinkOption.BOOLEAN_PAUSE);
+	}
+
+	/**
+	 * Опция паузы линка изменилась. Как и раньше, уже пришедшие письма линк
+	 * получит и на паузе ( они переносятся в echomailawait ), а пришедшие во
+	 * время паузы - никогда
+	 * 
+	 * @param link
+	 * @param wasPaused
+	 */
+	public static void pauseChanged(Link link, boolean wasPaused) {
+		boolean paused = isPaused(link);
+		if (paused == wasPaused || link.getId() == null) {
+			return;
+		}
+		long safe = getSafeId();
+		if (paused) {
+			ORMManager.get(EchomailAwaiting.class).executeRaw(
+					String.format("INSERT INTO echomailawait (link_id, echomail_id)"
+							+ " SELECT %d, e.id FROM echomail e, subscription s"
+							+ " WHERE s.link_id = %d AND e.echoarea_id = s.echoarea_id"
+							+ " AND e.id > s.lastmail_id AND e.id <= %d"
+							+ " AND (e.source_link_id IS NULL OR e.source_link_id <> %d)",
+							link.getId(), link.getId(), safe, link.getId()));
+		}
+		advance(link, safe);
+		logger.l4("Link " + link.getLinkAddress()
+				+ ((paused) ? " paused" : " resumed") + " at echomail #"
+				+ safe);
+	}
+}
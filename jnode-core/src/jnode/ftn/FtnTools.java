@@ -23,11 +23,16 @@ package jnode.ftn;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -47,7 +52,6 @@ import java.util.regex.Pattern;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import jnode.core.ConcurrentDateFormatAccess;
 import jnode.core.FileUtils;
@@ -69,8 +73,12 @@ import jnode.dto.Subscription;
 import jnode.event.NewEchoareaEvent;
 import jnode.event.NewFileareaEvent;
 import jnode.event.Notifier;
+import jnode.ftn.cache.DupeIndex;
+import jnode.ftn.cache.LinkOptions;
+import jnode.ftn.cache.SubscriptionCache;
 import jnode.ftn.tosser.FtnTosser;
 import jnode.ftn.types.Ftn2D;
+import jnode.ftn.types.Ftn2DSet;
 import jnode.ftn.types.FtnAddress;
 import jnode.ftn.types.FtnMessage;
 import jnode.ftn.types.FtnPkt;
@@ -96,11 +104,16 @@ public final class FtnTools {
 	private static final String NETMAIL_VALID = "netmail.only_valid";
 	private static final String SEEN_BY = "SEEN-BY:";
 	private static final String PATH = "\001PATH:";
+	private static final int UNPACK_BUFFER = 65536;
 	public static final Charset CP_866 = Charset.forName("CP866");
 	private static final String ROUTE_VIA = "\001Via %s "
 			+ MainHandler.getVersion() + " %s";
 	public static final ConcurrentDateFormatAccess FORMAT = new ConcurrentDateFormatAccess(
 			"EEE, dd MMM yyyy HH:mm:ss Z", Locale.US);
+	private static final Pattern REWRITE_MSGID = Pattern
+			.compile("^(\\S+) (\\S+)$");
+	private static final Pattern REWRITE_ORIGIN = Pattern.compile(
+			"^ \\* Origin: (.*) \\((\\S+)\\)$", Pattern.MULTILINE);
 	private static final Logger logger = Logger.getLogger(FtnTools.class);
 
 	private static final Hashtable<String, IRobot> robotMaps = new Hashtable<>();
@@ -275,31 +288,64 @@ public final class FtnTools {
 	 */
 	public static String writeSeenBy(List<Ftn2D> seenby) {
 		logger.l5("WriteSeenBy: " + seenby);
-		StringBuilder ret = new StringBuilder();
 		Collections.sort(seenby, new Ftn2DComparator());
+		return write2D(SEEN_BY, keys(seenby));
+	}
+
+	/**
+	 * Превращает множество синбаев в строку для добавления в письмо
+	 * 
+	 * @param seenby
+	 * @return
+	 */
+	public static String writeSeenBy(Ftn2DSet seenby) {
+		logger.l5("WriteSeenBy: " + seenby);
+		long[] keys = new long[seenby.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = seenby.get(i);
+		}
+		return write2D(SEEN_BY, keys);
+	}
+
+	private static long[] keys(List<Ftn2D> list) {
+		long[] keys = new long[list.size()];
+		int i = 0;
+		for (Ftn2D ftn : list) {
+			keys[i++] = Ftn2DSet.key(ftn.getNet(), ftn.getNode());
+		}
+		return keys;
+	}
+
+	/**
+	 * Строки SEEN-BY или PATH не длиннее 72 символов, net пишется только
+	 * при смене
+	 * 
+	 * @param prefix
+	 * @param keys
+	 * @return
+	 */
+	private static String write2D(String prefix, long[] keys) {
+		StringBuilder ret = new StringBuilder();
 		int net = 0;
 		int linelen = 0;
-		for (Ftn2D ftn : seenby) {
+		for (long key : keys) {
 			if (linelen >= 72) {
 				linelen = 0;
 				net = 0;
 				ret.append("\n");
 			}
 			if (linelen == 0) {
-				ret.append(SEEN_BY);
-				linelen += SEEN_BY.length();
+				ret.append(prefix);
+				linelen += prefix.length();
 			}
-			if (net != ftn.getNet()) {
-				net = ftn.getNet();
-				String app = String.format(" %d/%d", ftn.getNet(),
-						ftn.getNode());
-				ret.append(app);
-				linelen += app.length();
-			} else {
-				String app = String.format(" %d", ftn.getNode());
-				ret.append(app);
-				linelen += app.length();
+			int start = ret.length();
+			ret.append(' ');
+			if (net != Ftn2DSet.net(key)) {
+				net = Ftn2DSet.net(key);
+				ret.append(net).append('/');
 			}
+			ret.append(Ftn2DSet.node(key));
+			linelen += ret.length() - start;
 		}
 		if (ret.length() == 0) {
 			return "";
@@ -346,38 +392,7 @@ public final class FtnTools {
 	 */
 	public static String writePath(List<Ftn2D> path) {
 		logger.l5("WritePath: " + path);
-		StringBuilder ret = new StringBuilder();
-		int net = 0;
-		int linelen = 0;
-		for (Ftn2D ftn : path) {
-			if (linelen >= 72) {
-				linelen = 0;
-				net = 0;
-				ret.append("\n");
-			}
-			if (linelen == 0) {
-				ret.append(PATH);
-				linelen += PATH.length();
-			}
-			if (net != ftn.getNet()) {
-				net = ftn.getNet();
-				String app = String.format(" %d/%d", ftn.getNet(),
-						ftn.getNode());
-				ret.append(app);
-				linelen += app.length();
-			} else {
-				String app = String.format(" %d", ftn.getNode());
-				ret.append(app);
-				linelen += app.length();
-			}
-		}
-		if (ret.length() == 0) {
-			return "";
-		}
-		if (ret.charAt(ret.length() - 1) != '\n') {
-			ret.append('\n');
-		}
-		return ret.toString();
+		return write2D(PATH, keys(path));
 	}
 
 	/**
@@ -449,7 +464,7 @@ public final class FtnTools {
 		List<FtnAddress> ret = new ArrayList<>();
 		for (String l2d : list2d.split(" ")) {
 			try {
-				ret.add(new FtnAddress(l2d));
+				ret.add(FtnAddress.valueOf(l2d));
 			} catch (RuntimeException e) {
 			}
 		}
@@ -475,7 +490,7 @@ public final class FtnTools {
 			} else {
 				flag = true;
 			}
-			ret.append(String.format("%d/%d", d.getNet(), d.getNode()));
+			ret.append(d.getNet()).append('/').append(d.getNode());
 		}
 		return ret.toString();
 	}
@@ -509,15 +524,7 @@ public final class FtnTools {
 	 * @return
 	 */
 	public static String getOption(Link link, String option) {
-		String value = "";
-		if (link.getId() != null) {
-			LinkOption opt = ORMManager.get(LinkOption.class).getFirstAnd(
-					"link_id", "=", link, "name", "=", option.toLowerCase());
-			if (opt != null) {
-				value = opt.getValue();
-			}
-		}
-		return value;
+		return LinkOptions.forLink(link).getString(option);
 	}
 
 	public static String getOptionString(Link link, String option) {
@@ -525,28 +532,19 @@ public final class FtnTools {
 	}
 
 	public static boolean getOptionBooleanDefFalse(Link link, String option) {
-		String s = getOption(link, option);
-		return s.equalsIgnoreCase("TRUE") || s.equalsIgnoreCase("ON");
+		return LinkOptions.forLink(link).getBooleanDefFalse(option);
 	}
 
 	public static boolean getOptionBooleanDefTrue(Link link, String option) {
-		String s = getOption(link, option);
-		return !(s.equalsIgnoreCase("FALSE") || s.equalsIgnoreCase("OFF"));
+		return LinkOptions.forLink(link).getBooleanDefTrue(option);
 	}
 
 	public static long getOptionLong(Link link, String option) {
-		String s = getOption(link, option);
-		long ret = 0;
-		try {
-			ret = Long.valueOf(s);
-		} catch (NumberFormatException ignore) {
-		}
-		return ret;
+		return LinkOptions.forLink(link).getLong(option);
 	}
 
 	public static String[] getOptionStringArray(Link link, String option) {
-		String s = getOption(link, option);
-		return s.split(" ");
+		return LinkOptions.forLink(link).getStringArray(option);
 	}
 
 	/**
@@ -609,9 +607,9 @@ public final class FtnTools {
 		if (filename.matches("^[a-f0-9]{8}\\.pkt$")) {
 			File out = createInboundFile(message.isSecure());
 			FileOutputStream fos = new FileOutputStream(out);
+			byte[] buf = new byte[UNPACK_BUFFER];
 			int len = 0;
 			do {
-				byte[] buf = new byte[1024];
 				len = message.getInputStream().read(buf);
 				if (len > 0) {
 					fos.write(buf, 0, len);
@@ -625,9 +623,9 @@ public final class FtnTools {
 			File f = guessFilename(filename, false);
 			if (f != null) {
 				FileOutputStream fos = new FileOutputStream(f);
+				byte[] buf = new byte[UNPACK_BUFFER];
 				int len = 0;
 				do {
-					byte[] buf = new byte[1024];
 					len = message.getInputStream().read(buf);
 					if (len > 0) {
 						fos.write(buf, 0, len);
@@ -660,9 +658,9 @@ public final class FtnTools {
 			if (name.matches("^[a-f0-9]{8}\\.pkt$")) {
 				File out = createInboundFile(message.isSecure());
 				FileOutputStream fos = new FileOutputStream(out);
+				byte[] buf = new byte[UNPACK_BUFFER];
 				int len = 0;
 				do {
-					byte[] buf = new byte[1024];
 					len = zis.read(buf);
 					if (len > 0) {
 						fos.write(buf, 0, len);
@@ -780,25 +778,34 @@ public final class FtnTools {
 				switch (i) {
 				case 0:
 					FtnAddress nfa = new FtnAddress(fields[i]);
+					String from = message.getFromAddr().toString();
 					if (message.getMsgid() != null) {
-						Matcher msgid = Pattern.compile(
-								"^" + message.getFromAddr() + " (\\S+)$")
-								.matcher(message.getMsgid());
-						if (msgid.find()) {
-							String msg = msgid.replaceFirst(nfa + " $1");
+						Matcher msgid = REWRITE_MSGID.matcher(message
+								.getMsgid());
+						if (msgid.find() && msgid.group(1).equals(from)) {
+							String msg = nfa + " " + msgid.group(2);
 							message.setText(message.getText().replace(
 									message.getMsgid(), msg));
 							message.setMsgid(msg);
 
 						}
 					} // TODO : netmail msgid
-					Matcher origin = Pattern.compile(
-							"^ \\* Origin: (.*) \\(" + message.getFromAddr()
-									+ "\\)$", Pattern.MULTILINE).matcher(
-							message.getText());
-					if (origin.find()) {
-						message.setText(origin.replaceFirst(" * Origin: $1 ("
-								+ nfa + ")"));
+					if (message.getText() != null) {
+						Matcher origin = REWRITE_ORIGIN.matcher(message
+								.getText());
+						while (origin.find()) {
+							if (origin.group(2).equals(from)) {
+								String text = message.getText();
+								message.setText(text.substring(0,
+										origin.start())
+										+ " * Origin: "
+										+ origin.group(1)
+										+ " ("
+										+ nfa
+										+ ")" + text.substring(origin.end()));
+								break;
+							}
+						}
 					}
 					message.setFromAddr(nfa);
 					logger.l5("Rewrite fromAddr to " + fields[i]);
@@ -882,26 +889,9 @@ public final class FtnTools {
 	 * @return
 	 */
 	public static Link getRouting(FtnMessage message) {
-		Link routeVia;
-		FtnAddress routeTo = message.getToAddr().clone();
-		routeVia = getLinkByFtnAddress(routeTo);
-		// check our point
-		if (!isOurPoint(routeTo)) {
-			routeTo.setPoint(0);
-			routeVia = getLinkByFtnAddress(routeTo);
-			// а теперь - по роутингу
-			if (routeVia == null) {
-				List<Route> routes = ORMManager.get(Route.class).getOrderAnd(
-						"nice", true);
-				for (Route route : routes) {
-					if (completeMask(route, message)) {
-						routeVia = route.getRouteVia();
-						break;
-					}
-				}
-			}
-		}
-		return routeVia;
+		RoutingTable.Match match = RoutingTable.get().route(message);
+		logger.l5("Routing to " + message.getToAddr() + ": " + match);
+		return match.getVia();
 	}
 
 	public static Link getRoutingFallback(FtnMessage message,
@@ -912,17 +902,10 @@ public final class FtnTools {
 			return null;
 		}
 		// direct link can be down for us - use cross way
-		List<Route> routes = ORMManager.get(Route.class).getOrderAnd("nice",
-				true);
-		for (Route route : routes) {
-			if (completeMask(route, message)) {
-				if (route.getRouteVia().equals(previousRouteVia)) {
-					continue;
-				}
-				routeVia = route.getRouteVia();
-				break;
-			}
-		}
+		RoutingTable.Match match = RoutingTable.get().match(message,
+				previousRouteVia);
+		logger.l5("Fallback routing to " + message.getToAddr() + ": " + match);
+		routeVia = match.getVia();
 		if (routeVia == null) {
 			routeVia = previousRouteVia;
 		}
@@ -1057,35 +1040,31 @@ public final class FtnTools {
 		}
 	}
 
+	/**
+	 * Новый файл во временном каталоге спула
+	 * 
+	 * @param link
+	 * @return
+	 */
 	public static File createOutboundFile(Link link) {
-		String template;
-		if (link != null && link.getId() != null) {
-			template = "out_" + link.getId() + ".%d";
-		} else {
-			template = "out_random.%d";
-		}
-		int i = 0;
-		File f = new File(getInbound() + File.separator
-				+ String.format(template, i));
-		while (f.exists()) {
-			i++;
-			f = new File(getInbound() + File.separator
-					+ String.format(template, i));
-		}
-		return f;
+		return SpoolManager.getSelf().createTempFile(
+				(link != null && link.getId() != null) ? "out_" + link.getId()
+						: "out_random");
 	}
 
 	private static File createInboundFile(boolean secure) {
-		String template = ((secure) ? "s" : "u") + "inb%d.pkt";
-		int i = 0;
-		File f = new File(getInbound() + File.separator
-				+ String.format(template, i));
-		while (f.exists()) {
-			i++;
-			f = new File(getInbound() + File.separator
-					+ String.format(template, i));
-		}
-		return f;
+		return createInboundFile(secure, "pkt");
+	}
+
+	/**
+	 * Новый файл [su]inbN.extension в inbound
+	 * 
+	 * @param secure
+	 * @param extension
+	 * @return
+	 */
+	public static File createInboundFile(boolean secure, String extension) {
+		return SpoolManager.getSelf().createInboundFile(secure, extension);
 	}
 
 	public static String getInbound() {
@@ -1097,30 +1076,13 @@ public final class FtnTools {
 			List<FtnMessage> messages) throws IOException {
 		File np = createOutboundFile(link);
 		FileOutputStream out = new FileOutputStream(np);
-		ZipOutputStream zos = new ZipOutputStream(out);
-		zos.setMethod(ZipOutputStream.DEFLATED);
-		ZipEntry ze = new ZipEntry(String.format("%s.pkt", generate8d()));
-		ze.setMethod(ZipEntry.DEFLATED);
-		CRC32 crc32 = new CRC32();
-		zos.putNextEntry(ze);
-		int len = 0;
-		byte[] data = header.pack();
-		len += data.length;
-		crc32.update(data);
-		zos.write(data);
+		OutputStream zos = new ZipBundleOutputStream(out, out, String.format(
+				"%s.pkt", generate8d()), ZipBundleOutputStream.getLevel(link));
+		header.write(zos);
 		for (FtnMessage m : messages) {
-			data = m.pack();
-			len += data.length;
-			crc32.update(data);
-			zos.write(data);
-		}
-		data = header.finalz();
-		len += data.length;
-		crc32.update(data);
-		zos.write(data);
-		ze.setSize(len);
-		ze.setCrc(crc32.getValue());
-		zos.close();
+			m.write(zos);
+		}
+		header.finalz(zos);
 		out.close();
 		return np;
 	}
@@ -1178,7 +1140,7 @@ public final class FtnTools {
 		List<FtnMessage> unpackedEchomail = new ArrayList<>();
 		List<FtnMessage> packedNetmail = new ArrayList<>();
 		List<FtnMessage> unpackedNetmail = new ArrayList<>();
-		FtnAddress to = new FtnAddress(link.getLinkAddress());
+		FtnAddress to = FtnAddress.valueOf(link.getLinkAddress());
 		String password = link.getPaketPassword();
 		FtnPkt header = new FtnPkt(selectOurAka(link), to, password, new Date());
 
@@ -1277,7 +1239,7 @@ public final class FtnTools {
 			return getPrimaryFtnAddress();
 		}
 		FtnAddress ret = getPrimaryFtnAddress();
-		FtnAddress addr = new FtnAddress(link.getLinkAddress());
+		FtnAddress addr = FtnAddress.valueOf(link.getLinkAddress());
 		if (addr.getPoint() > 0) {
 			for (FtnAddress address : MainHandler.getCurrentInstance()
 					.getInfo().getAddressList()) {
@@ -1294,7 +1256,7 @@ public final class FtnTools {
 			String ourAka = FtnTools.getOption(link, LinkOption.STRING_OUR_AKA);
 			if (ourAka != null) {
 				try {
-					FtnAddress _our = new FtnAddress(ourAka);
+					FtnAddress _our = FtnAddress.valueOf(ourAka);
 					if (MainHandler.getCurrentInstance().getInfo()
 							.getAddressList().contains(_our)) {
 						ret = _our;
@@ -1339,23 +1301,7 @@ public final class FtnTools {
 	 * @param message
 	 */
 	public static void processRewrite(FtnMessage message) {
-		List<Rewrite> rewrites = ORMManager.get(Rewrite.class).getOrderAnd(
-				"nice",
-				true,
-				"type",
-				"=",
-				(message.isNetmail()) ? (Rewrite.Type.NETMAIL)
-						: (Rewrite.Type.ECHOMAIL));
-		for (Rewrite rewrite : rewrites) {
-			if (FtnTools.completeMask(rewrite, message)) {
-				logger.l5(((message.isNetmail()) ? "NET" : "ECH")
-						+ " - match found, rewriting " + message.getMsgid());
-				rewrite(rewrite, message);
-				if (rewrite.isLast()) {
-					break;
-				}
-			}
-		}
+		RewriteEngine.get().process(message);
 	}
 
 	/**
@@ -1388,7 +1334,9 @@ public final class FtnTools {
 					Subscription sub = new Subscription();
 					sub.setArea(ret);
 					sub.setLink(link);
+					EchomailCursors.subscribe(sub);
 					ORMManager.get(Subscription.class).save(sub);
+					SubscriptionCache.getSelf().invalidate();
 				}
 				Notifier.INSTANSE.notify(new NewEchoareaEvent(name, link));
 			}
@@ -1434,6 +1382,7 @@ public final class FtnTools {
 					sub.setArea(ret);
 					sub.setLink(link);
 					ORMManager.get(FileSubscription.class).save(sub);
+					SubscriptionCache.getSelf().invalidate();
 				}
 				Notifier.INSTANSE.notify(new NewFileareaEvent(name, link));
 			}
@@ -1449,8 +1398,7 @@ public final class FtnTools {
 	}
 
 	public static boolean isADupe(Echoarea area, String msgid) {
-		return ORMManager.get(Echomail.class).getFirstAnd("msgid", "=", msgid,
-				"echoarea_id", "=", area) != null;
+		return DupeIndex.getSelf().isADupe(area, msgid);
 	}
 
 	/**
@@ -1569,13 +1517,14 @@ public final class FtnTools {
 		b.append(" * Origin: " + MainHandler.getVersion() + " ("
 				+ getPrimaryFtnAddress().toString() + ")\n");
 		mail.setText(b.toString());
-		ORMManager.get(Echomail.class).save(mail);
+		EchomailCursors.beginWrite();
+		try {
+			ORMManager.get(Echomail.class).save(mail);
+		} finally {
+			EchomailCursors.endWrite();
+		}
 		if (mail.getId() != null) {
-			for (Subscription s : ORMManager.get(Subscription.class).getAnd(
-					"echoarea_id", "=", area)) {
-				ORMManager.get(EchomailAwaiting.class).save(
-						new EchomailAwaiting(s.getLink(), mail));
-			}
+			DupeIndex.getSelf().add(area, mail.getMsgid());
 		}
 	}
 
@@ -1612,6 +1561,11 @@ public final class FtnTools {
 			logger.l2("Failed to rename " + attach.getAbsolutePath() + " to "
 					+ path);
 		}
+		try {
+			updateChecksum(mail, new File(mail.getFilepath()));
+		} catch (IOException e) {
+			logger.l2("Failed to checksum " + mail.getFilepath(), e);
+		}
 		ORMManager.get(Filemail.class).save(mail);
 
 		for (FileSubscription sub : ORMManager.get(FileSubscription.class)
@@ -1625,6 +1579,66 @@ public final class FtnTools {
 		}
 	}
 
+	/**
+	 * CRC32 файла, читается блоками по мегабайту
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static long crc32(File file) throws IOException {
+		CRC32 crc32 = new CRC32();
+		ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+		try (FileChannel channel = new FileInputStream(file).getChannel()) {
+			while (channel.read(buf) > 0) {
+				((Buffer) buf).flip();
+				crc32.update(buf);
+				((Buffer) buf).clear();
+			}
+		}
+		return crc32.getValue();
+	}
+
+	/**
+	 * Посчитать и запомнить в письме crc, размер и время изменения файла (
+	 * без сохранения письма )
+	 * 
+	 * @param mail
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void updateChecksum(Filemail mail, File file)
+			throws IOException {
+		long size = file.length();
+		long mtime = file.lastModified();
+		mail.setCrc32(crc32(file));
+		mail.setFilesize(size);
+		mail.setMtime(mtime);
+	}
+
+	/**
+	 * CRC32 файла фэхи: сохраненный в письме, если файл с тех пор не менялся (
+	 * размер и время изменения ), иначе пересчитывается и сохраняется
+	 * 
+	 * @param mail
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static long getCrc32(Filemail mail, File file) throws IOException {
+		if (mail.getCrc32() == null
+				|| mail.getFilesize() == null
+				|| mail.getMtime() == null
+				|| mail.getFilesize().longValue() != file.length()
+				|| mail.getMtime().longValue() != file.lastModified()) {
+			updateChecksum(mail, file);
+			if (mail.getId() != null) {
+				ORMManager.get(Filemail.class).update(mail);
+			}
+		}
+		return mail.getCrc32();
+	}
+
 	public static String getFilePath(String area, String attach) {
 		String areaPath = FtnTosser.getFileechoPath() + File.separator + area;
 		File f = new File(areaPath);
@@ -1680,6 +1694,7 @@ public final class FtnTools {
 					ORMManager.get(Filemail.class).delete(mail);
 				}
 				ORMManager.get(Filearea.class).delete(area);
+				SubscriptionCache.getSelf().invalidate();
 				logger.l2("Filearea " + area.getName() + " deleted");
 			}
 		}
@@ -1702,6 +1717,7 @@ public final class FtnTools {
 					ORMManager.get(Echomail.class).delete(mail);
 				}
 				ORMManager.get(Echoarea.class).delete(area);
+				SubscriptionCache.getSelf().invalidate();
 				logger.l2("Echoarea " + area.getName() + " deleted");
 			}
 		}
@@ -1729,6 +1745,10 @@ public final class FtnTools {
 				ORMManager.get(Netmail.class).update("route_via", 0,
 						"route_via", "=", link);
 				ORMManager.get(Link.class).delete(link);
+				SpoolManager.getSelf().clear(link);
+				RoutingTable.invalidate();
+				LinkOptions.invalidate();
+				SubscriptionCache.getSelf().invalidate();
 				logger.l2("Link " + link.getLinkAddress() + " deleted");
 			}
 		}
@@ -1736,6 +1756,7 @@ public final class FtnTools {
 	}
 
 	public static void setOption(Link link, String name, String value) {
+		boolean paused = EchomailCursors.isPaused(link);
 		LinkOption option = ORMManager.get(LinkOption.class).getFirstAnd(
 				"link_id", "=", link, "name", "=", name);
 		if (option == null) {
@@ -1744,6 +1765,9 @@ public final class FtnTools {
 			option.setValue(value);
 		}
 		ORMManager.get(LinkOption.class).saveOrUpdate(option);
+		LinkOptions.invalidate();
+		SubscriptionCache.getSelf().invalidate();
+		EchomailCursors.pauseChanged(link, paused);
 	}
 
 }
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import jnode.dto.Rewrite;
+import jnode.ftn.types.FtnMessage;
+import jnode.logger.Logger;
+import jnode.orm.ORMManager;
+
+/**
+ * Скомпилированные правила реврайта.
+ * 
+ * Маски компилируются один раз; перед регэкспом проверяется литеральный
+ * префикс маски, а маски без метасимволов сравниваются как строки. При
+ * изменении правил нужно вызвать {@link #invalidate()}
+ * 
+ * @author agent
+ * 
+ */
+public class RewriteEngine {
+	private static final Logger logger = Logger.getLogger(RewriteEngine.class);
+	private static final String META = ".[]()*+?{}^$|\\";
+	private static final AtomicLong version = new AtomicLong();
+	private static volatile RewriteEngine current;
+
+	private final Rule[] netmail;
+	private final Rule[] echomail;
+
+	/**
+	 * Текущие правила; читаются из базы при первом обращении после
+	 * {@link #invalidate()}
+	 * 
+	 * @return
+	 */
+	public static RewriteEngine get() {
+		RewriteEngine ret = current;
+		if (ret == null) {
+			synchronized (RewriteEngine.class) {
+				ret = current;
+				if (ret == null) {
+					long v = version.get();
+					ret = new RewriteEngine(ORMManager.get(Rewrite.class)
+							.getOrderAnd("nice", true));
+					if (v == version.get()) {
+						current = ret;
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Правила реврайта изменились
+	 */
+	public static void invalidate() {
+		version.incrementAndGet();
+		current = null;
+	}
+
+	/**
+	 * @param rewrites
+	 *            правила в порядке nice
+	 */
+	RewriteEngine(List<Rewrite> rewrites) {
+		List<Rule> net = new ArrayList<>();
+		List<Rule> echo = new ArrayList<>();
+		for (Rewrite rewrite : rewrites) {
+			if (rewrite.getType() == Rewrite.Type.NETMAIL) {
+				net.add(new Rule(rewrite));
+			} else if (rewrite.getType() == Rewrite.Type.ECHOMAIL) {
+				echo.add(new Rule(rewrite));
+			}
+		}
+		netmail = net.toArray(new Rule[net.size()]);
+		echomail = echo.toArray(new Rule[echo.size()]);
+		logger.l4(String.format("Rewrite rules: %d netmail, %d echomail",
+				netmail.length, echomail.length));
+	}
+
+	/**
+	 * Делаем реврайт
+	 * 
+	 * @param message
+	 */
+	public void process(FtnMessage message) {
+		Rule[] rules = (message.isNetmail()) ? netmail : echomail;
+		if (rules.length == 0) {
+			return;
+		}
+		String[] check = fields(message);
+		for (Rule rule : rules) {
+			if (rule.matches(check)) {
+				logger.l5(((message.isNetmail()) ? "NET" : "ECH")
+						+ " - match found, rewriting " + message.getMsgid());
+				FtnTools.rewrite(rule.rewrite, message);
+				if (rule.rewrite.isLast()) {
+					break;
+				}
+				check = fields(message);
+			}
+		}
+	}
+
+	private static String[] fields(FtnMessage message) {
+		return new String[] { message.getFromAddr().toString(),
+				message.getToAddr().toString(), message.getFromName(),
+				message.getToName(), message.getSubject() };
+	}
+
+	/**
+	 * Литеральное начало регэкспа: всё, что обязано стоять в начале любой
+	 * подходящей строки
+	 * 
+	 * @param regex
+	 * @return
+	 */
+	static String literalPrefix(String regex) {
+		if (regex.indexOf('|') >= 0) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		int i = (regex.startsWith("^")) ? 1 : 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\' && i + 1 < regex.length()
+					&& !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+				sb.append(regex.charAt(i + 1));
+				i += 2;
+			} else if (META.indexOf(c) < 0) {
+				sb.append(c);
+				i++;
+			} else {
+				if ((c == '*' || c == '?' || c == '{') && sb.length() > 0) {
+					// последний символ необязателен
+					sb.setLength(sb.length() - 1);
+				}
+				break;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Регэксп без метасимволов: строка, которой он соответствует, или null
+	 * 
+	 * @param regex
+	 * @return
+	 */
+	static String literal(String regex) {
+		String body = regex;
+		if (body.startsWith("^")) {
+			body = body.substring(1);
+		}
+		if (body.endsWith("$") && !body.endsWith("\\$")) {
+			body = body.substring(0, body.length() - 1);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < body.length(); i++) {
+			char c = body.charAt(i);
+			if (c == '\\' && i + 1 < body.length()
+					&& !Character.isLetterOrDigit(body.charAt(i + 1))) {
+				sb.append(body.charAt(++i));
+			} else if (META.indexOf(c) < 0) {
+				sb.append(c);
+			} else {
+				return null;
+			}
+		}
+		return sb.toString();
+	}
+
+	private static final class Mask {
+		private final String literal;
+		private final String prefix;
+		private final Pattern pattern;
+
+		private Mask(String regex) {
+			literal = literal(regex);
+			prefix = (literal == null) ? literalPrefix(regex) : literal;
+			Pattern p = null;
+			if (literal == null) {
+				try {
+					p = Pattern.compile(regex);
+				} catch (PatternSyntaxException e) {
+					logger.l2("Invalid mask in rewrite: " + regex);
+					p = Pattern.compile("(?!)");
+				}
+			}
+			pattern = p;
+		}
+
+		private boolean matches(String value) {
+			if (value == null || !value.startsWith(prefix)) {
+				return false;
+			}
+			if (literal != null) {
+				return literal.length() == value.length();
+			}
+			return pattern.matcher(value).matches();
+		}
+	}
+
+	private static final class Rule {
+		private final Rewrite rewrite;
+		private final Mask[] masks = new Mask[5];
+
+		private Rule(Rewrite rewrite) {
+			this.rewrite = rewrite;
+			String[] regexp = new String[] { rewrite.getOrig_from_addr(),
+					rewrite.getOrig_to_addr(), rewrite.getOrig_from_name(),
+					rewrite.getOrig_to_name(), rewrite.getOrig_subject() };
+			for (int i = 0; i < 5; i++) {
+				if (regexp[i] != null && !regexp[i].equals("*")) {
+					masks[i] = new Mask(regexp[i]);
+				}
+			}
+		}
+
+		private boolean matches(String[] check) {
+			for (int i = 0; i < 5; i++) {
+				if (masks[i] != null && !masks[i].matches(check[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import jnode.dto.Link;
+import jnode.dto.Route;
+import jnode.ftn.types.FtnAddress;
+import jnode.ftn.types.FtnMessage;
+import jnode.logger.Logger;
+import jnode.orm.ORMManager;
+
+/**
+ * Скомпилированная таблица роутинга нетмейла.
+ * 
+ * Маски адреса получателя вида "2:5020/841" и "2:5020/.*" разложены по
+ * хэшам, остальные правила проверяются регэкспами ( уже скомпилированными ).
+ * Побеждает правило с наименьшим nice, как и раньше. Таблица неизменяема;
+ * при изменении роутинга или линков нужно вызвать {@link #invalidate()}
+ * 
+ * @author agent
+ * 
+ */
+public class RoutingTable {
+	private static final Logger logger = Logger.getLogger(RoutingTable.class);
+	private static final Pattern LITERAL = Pattern
+			.compile("^\\^?((?:[-A-Za-z0-9:/@_]|\\\\\\.)+)\\$?$");
+	private static final Pattern PREFIX = Pattern
+			.compile("^\\^?((?:[-A-Za-z0-9:/@_]|\\\\\\.)+)\\.\\*\\$?$");
+	private static final AtomicLong version = new AtomicLong();
+	private static volatile RoutingTable current;
+
+	private final Map<String, Link> links = new HashMap<>();
+	private final Map<String, List<Rule>> exact = new HashMap<>();
+	private final Map<String, List<Rule>> prefixes = new HashMap<>();
+	private final List<Rule> scan = new ArrayList<>();
+	private int maxPrefix;
+
+	/**
+	 * Текущая таблица; строится из базы при первом обращении после
+	 * {@link #invalidate()}
+	 * 
+	 * @return
+	 */
+	public static RoutingTable get() {
+		RoutingTable ret = current;
+		if (ret == null) {
+			synchronized (RoutingTable.class) {
+				ret = current;
+				if (ret == null) {
+					long v = version.get();
+					ret = new RoutingTable(ORMManager.get(Route.class)
+							.getOrderAnd("nice", true), ORMManager.get(
+							Link.class).getAll());
+					if (v == version.get()) {
+						current = ret;
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Роутинг или линки изменились
+	 */
+	public static void invalidate() {
+		version.incrementAndGet();
+		current = null;
+	}
+
+	/**
+	 * @param routes
+	 *            правила в порядке nice
+	 * @param links
+	 *            все линки
+	 */
+	RoutingTable(List<Route> routes, List<Link> links) {
+		for (Link link : links) {
+			if (link.getLinkAddress() != null) {
+				this.links.put(link.getLinkAddress(), link);
+			}
+		}
+		int order = 0;
+		for (Route route : routes) {
+			Rule rule = new Rule(order++, route);
+			String to = route.getToAddr();
+			Matcher m;
+			if (to == null || "*".equals(to)) {
+				rule.kind = "any";
+				scan.add(rule);
+			} else if ((m = LITERAL.matcher(to)).matches()) {
+				rule.kind = "exact";
+				add(exact, m.group(1).replace("\\.", "."), rule);
+			} else if ((m = PREFIX.matcher(to)).matches()) {
+				String prefix = m.group(1).replace("\\.", ".");
+				rule.kind = "prefix";
+				add(prefixes, prefix, rule);
+				maxPrefix = Math.max(maxPrefix, prefix.length());
+			} else {
+				rule.kind = "regex";
+				rule.to = compile(to);
+				scan.add(rule);
+			}
+		}
+		logger.l4(String.format(
+				"Routing table: %d rules (%d exact, %d prefix, %d scanned)",
+				order, count(exact), count(prefixes), scan.size()));
+	}
+
+	/**
+	 * Куда отправить нетмейл: сначала прямой линк, потом правила
+	 * 
+	 * @param message
+	 * @return
+	 */
+	public Match route(FtnMessage message) {
+		FtnAddress routeTo = message.getToAddr().clone();
+		Link direct = links.get(routeTo.toString());
+		// check our point
+		if (FtnTools.isOurPoint(routeTo)) {
+			return new Match(direct, (direct != null) ? "direct link "
+					+ routeTo : "our point, no link");
+		}
+		routeTo.setPoint(0);
+		direct = links.get(routeTo.toString());
+		if (direct != null) {
+			return new Match(direct, "direct link " + routeTo);
+		}
+		return match(message, null);
+	}
+
+	/**
+	 * Первое подходящее правило, ведущее не через exclude
+	 * 
+	 * @param message
+	 * @param exclude
+	 *            может быть null
+	 * @return
+	 */
+	public Match match(FtnMessage message, Link exclude) {
+		String to = message.getToAddr().toString();
+		Rule best = null;
+		best = best(exact.get(to), message, exclude, best);
+		for (int i = Math.min(to.length(), maxPrefix); i >= 0; i--) {
+			best = best(prefixes.get(to.substring(0, i)), message, exclude,
+					best);
+		}
+		best = best(scan, message, exclude, best);
+		if (best == null) {
+			return new Match(null, "no route");
+		}
+		return new Match(best.route.getRouteVia(), best.toString());
+	}
+
+	private static Rule best(List<Rule> rules, FtnMessage message,
+			Link exclude, Rule best) {
+		if (rules == null) {
+			return best;
+		}
+		for (Rule rule : rules) {
+			if (best != null && best.order < rule.order) {
+				// правила в списке идут по порядку
+				break;
+			}
+			if (exclude != null && exclude.equals(rule.route.getRouteVia())) {
+				continue;
+			}
+			if (rule.matches(message)) {
+				return rule;
+			}
+		}
+		return best;
+	}
+
+	private static void add(Map<String, List<Rule>> map, String key, Rule rule) {
+		List<Rule> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<>();
+			map.put(key, list);
+		}
+		list.add(rule);
+	}
+
+	private static int count(Map<String, List<Rule>> map) {
+		int n = 0;
+		for (List<Rule> list : map.values()) {
+			n += list.size();
+		}
+		return n;
+	}
+
+	private static Pattern compile(String regex) {
+		if (regex == null || "*".equals(regex)) {
+			return null;
+		}
+		try {
+			return Pattern.compile(regex);
+		} catch (PatternSyntaxException e) {
+			logger.l2("Invalid mask in routing: " + regex);
+			return Pattern.compile("(?!)");
+		}
+	}
+
+	private static boolean matches(Pattern pattern, String value) {
+		return pattern == null
+				|| (value != null && pattern.matcher(value).matches());
+	}
+
+	/**
+	 * Результат: линк ( или null ) и сработавшее правило
+	 */
+	public static final class Match {
+		private final Link via;
+		private final String rule;
+
+		private Match(Link via, String rule) {
+			this.via = via;
+			this.rule = rule;
+		}
+
+		public Link getVia() {
+			return via;
+		}
+
+		public String getRule() {
+			return rule;
+		}
+
+		@Override
+		public String toString() {
+			return rule;
+		}
+	}
+
+	private static final class Rule {
+		private final int order;
+		private final Route route;
+		private final Pattern fromAddr;
+		private final Pattern fromName;
+		private final Pattern toName;
+		private final Pattern subject;
+		private Pattern to;
+		private String kind;
+
+		private Rule(int order, Route route) {
+			this.order = order;
+			this.route = route;
+			this.fromAddr = compile(route.getFromAddr());
+			this.fromName = compile(route.getFromName());
+			this.toName = compile(route.getToName());
+			this.subject = compile(route.getSubject());
+		}
+
+		private boolean matches(FtnMessage message) {
+			return RoutingTable.matches(to, message.getToAddr().toString())
+					&& RoutingTable.matches(fromAddr, message.getFromAddr()
+							.toString())
+					&& RoutingTable.matches(fromName, message.getFromName())
+					&& RoutingTable.matches(toName, message.getToName())
+					&& RoutingTable.matches(subject, message.getSubject());
+		}
+
+		@Override
+		public String toString() {
+			return String.format("route #%d nice %d (%s %s)", route.getId(),
+					route.getNice(), kind, route.getToAddr());
+		}
+	}
+}
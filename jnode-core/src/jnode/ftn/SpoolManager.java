@@ -0,0 +1,520 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipFile;
+
+import jnode.dto.Link;
+import jnode.ftn.types.FtnAddress;
+import jnode.ftn.types.FtnPkt;
+import jnode.logger.Logger;
+import jnode.main.MainHandler;
+import jnode.protocol.io.Message;
+
+/**
+ * Каталоги почты: inbound ( binkp.inbound ), исходящий спул ( binkp.spool,
+ * по подкаталогу на линк ) и временный каталог спула для собираемых
+ * пакетов. Содержимое спула держится в памяти: файлы читаются с диска один
+ * раз при старте, дальше спул меняется только через этот класс. Имена
+ * выдаются счетчиком, без проверки существования файла
+ * 
+ * Нетмейл лежит отдельно ( подкаталог netmail ): в сессию он отдается первым
+ * и в бюджет сессии не входит
+ * 
+ * @author agent
+ * 
+ */
+public final class SpoolManager {
+	private static final Logger logger = Logger.getLogger(SpoolManager.class);
+	private static final String BINKP_SPOOL = "binkp.spool";
+	private static final Pattern INBOUND = Pattern
+			.compile("^[su]inb(\\d+)\\..*$");
+	private static final Pattern LEGACY = Pattern.compile("^out_(\\d+)\\.\\d+$");
+	private static final Pattern BUNDLE = Pattern
+			.compile("^\\w{8}\\.(mo|tu|we|th|fr|sa|su)[0-9a-z]$");
+	private static final String NETMAIL = "netmail";
+	private static final Comparator<File> BY_AGE = new Comparator<File>() {
+		@Override
+		public int compare(File o1, File o2) {
+			int ret = Long.compare(o1.lastModified(), o2.lastModified());
+			return (ret != 0) ? ret : o1.getName().compareTo(o2.getName());
+		}
+	};
+	private static SpoolManager self;
+	private final File inbound;
+	private final File root;
+	private final File temp;
+	private final AtomicLong inboundCounter = new AtomicLong();
+	private final AtomicLong tempCounter = new AtomicLong();
+	/** id линка -> файлы спула в порядке отправки */
+	private final Map<Long, Map<File, Boolean>> index = new HashMap<>();
+	/** id линка -> нетмейл в порядке отправки; под блокировкой index */
+	private final Map<Long, Map<File, Boolean>> netmail = new HashMap<>();
+
+	public static synchronized SpoolManager getSelf() {
+		if (self == null) {
+			self = new SpoolManager();
+		}
+		return self;
+	}
+
+	private SpoolManager() {
+		inbound = new File(FtnTools.getInbound());
+		root = new File(MainHandler.getCurrentInstance().getProperty(
+				BINKP_SPOOL, inbound.getPath() + File.separator + "spool"));
+		temp = new File(root, "tmp");
+		if (!temp.isDirectory() && !temp.mkdirs()) {
+			logger.l1("Unable to create spool " + temp.getAbsolutePath());
+		}
+		load();
+	}
+
+	private void load() {
+		// недособранное после падения
+		File[] files = temp.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		long max = -1;
+		files = inbound.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName().toLowerCase();
+				Matcher m = INBOUND.matcher(name);
+				if (m.matches() && m.group(1).length() < 18) {
+					max = Math.max(max, Long.parseLong(m.group(1)));
+				} else {
+					m = LEGACY.matcher(name);
+					if (m.matches()) {
+						migrate(file, Long.valueOf(m.group(1)));
+					}
+				}
+			}
+		}
+		inboundCounter.set(max + 1);
+		File[] dirs = root.listFiles();
+		if (dirs == null) {
+			return;
+		}
+		int count = 0;
+		for (File dir : dirs) {
+			if (!dir.isDirectory() || !dir.getName().matches("^\\d+$")) {
+				continue;
+			}
+			Long linkId = Long.valueOf(dir.getName());
+			count += load(dir, entries(index, linkId));
+			count += load(new File(dir, NETMAIL), entries(netmail, linkId));
+		}
+		logger.l4("Spool " + root.getAbsolutePath() + " loaded: " + count
+				+ " files");
+	}
+
+	private static int load(File dir, Map<File, Boolean> list) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		Arrays.sort(files, BY_AGE);
+		int count = 0;
+		for (File file : files) {
+			if (file.isFile()) {
+				list.put(file, BUNDLE.matcher(file.getName()).matches());
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Неотправленный out_&lt;id&gt;.N из inbound старых версий
+	 */
+	private void migrate(File file, Long linkId) {
+		boolean packed = true;
+		try {
+			new ZipFile(file).close();
+		} catch (IOException e) {
+			packed = false;
+		}
+		try {
+			store(index, new File(root, String.valueOf(linkId)), linkId,
+					file, packed);
+		} catch (IOException e) {
+			logger.l2("Unable to move " + file + " to spool", e);
+		}
+	}
+
+	private static Map<File, Boolean> entries(
+			Map<Long, Map<File, Boolean>> index, Long linkId) {
+		Map<File, Boolean> ret = index.get(linkId);
+		if (ret == null) {
+			ret = new LinkedHashMap<>();
+			index.put(linkId, ret);
+		}
+		return ret;
+	}
+
+	public File getInbound() {
+		return inbound;
+	}
+
+	/**
+	 * Новое имя [su]inbN.extension в inbound
+	 * 
+	 * @param secure
+	 * @param extension
+	 * @return
+	 */
+	public File createInboundFile(boolean secure, String extension) {
+		return new File(inbound, ((secure) ? "s" : "u") + "inb"
+				+ inboundCounter.getAndIncrement() + "." + extension);
+	}
+
+	/**
+	 * Новое имя во временном каталоге спула
+	 * 
+	 * @param prefix
+	 * @return
+	 */
+	public File createTempFile(String prefix) {
+		return new File(temp, prefix + "." + tempCounter.getAndIncrement());
+	}
+
+	/**
+	 * Перенести готовый пакет или бандл в спул линка
+	 * 
+	 * @param link
+	 * @param file
+	 *            файл во временном каталоге
+	 * @param packed
+	 *            бандл
+	 * @return файл в спуле
+	 * @throws IOException
+	 */
+	public File add(Link link, File file, boolean packed) throws IOException {
+		synchronized (index) {
+			return store(index, new File(root, String.valueOf(link.getId())),
+					link.getId(), file, packed);
+		}
+	}
+
+	/**
+	 * Перенести пакет нетмейла в спул линка: он уйдет в первой же сессии, вне
+	 * бюджета
+	 * 
+	 * @param link
+	 * @param file
+	 *            файл во временном каталоге
+	 * @param packed
+	 *            бандл
+	 * @return файл в спуле
+	 * @throws IOException
+	 */
+	public File addNetmail(Link link, File file, boolean packed)
+			throws IOException {
+		synchronized (index) {
+			return store(netmail, new File(new File(root, String.valueOf(link
+					.getId())), NETMAIL), link.getId(), file, packed);
+		}
+	}
+
+	private static File store(Map<Long, Map<File, Boolean>> index, File dir,
+			Long linkId, File file, boolean packed) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create spool "
+					+ dir.getAbsolutePath());
+		}
+		Map<File, Boolean> list = entries(index, linkId);
+		File target;
+		do {
+			target = new File(dir, (packed) ? FtnTools.generateEchoBundle()
+					: FtnTools.generate8d() + ".pkt");
+		} while (list.containsKey(target));
+		if (!file.renameTo(target)) {
+			throw new IOException("Unable to move " + file + " to " + target);
+		}
+		list.put(target, packed);
+		return target;
+	}
+
+	/**
+	 * В спуле нет эхомейла линка
+	 * 
+	 * @param link
+	 * @return
+	 */
+	public boolean isEmpty(Link link) {
+		synchronized (index) {
+			Map<File, Boolean> list = index.get(link.getId());
+			return list == null || list.isEmpty();
+		}
+	}
+
+	/**
+	 * Файлы спула линка в порядке отправки. Отправленный файл (
+	 * {@link Message#delete()} ) уходит из спула
+	 * 
+	 * @param link
+	 * @return
+	 */
+	public List<Message> list(final Link link) {
+		return list(link, 0);
+	}
+
+	/**
+	 * Файлы спула линка в порядке отправки: сначала весь нетмейл, потом
+	 * эхомейл не больше maxBytes в сумме ( но хотя бы один файл )
+	 * 
+	 * @param link
+	 * @param maxBytes
+	 *            0 - все
+	 * @return
+	 */
+	public List<Message> list(final Link link, long maxBytes) {
+		List<File> files = new ArrayList<>();
+		synchronized (index) {
+			Map<File, Boolean> list = netmail.get(link.getId());
+			if (list != null) {
+				files.addAll(list.keySet());
+			}
+			list = index.get(link.getId());
+			if (list != null) {
+				long size = 0;
+				boolean first = true;
+				for (File file : list.keySet()) {
+					size += file.length();
+					if (maxBytes > 0 && size > maxBytes && !first) {
+						break;
+					}
+					files.add(file);
+					first = false;
+				}
+			}
+		}
+		List<Message> ret = new ArrayList<>(files.size());
+		for (final File file : files) {
+			try {
+				ret.add(new Message(file) {
+					@Override
+					public void delete() {
+						super.delete();
+						remove(link.getId(), file);
+					}
+				});
+			} catch (IOException e) {
+				logger.l3("Spooled file " + file + " is gone", e);
+				remove(link.getId(), file);
+			}
+		}
+		return ret;
+	}
+
+	private void remove(Long linkId, File file) {
+		synchronized (index) {
+			Map<File, Boolean> list = index.get(linkId);
+			if (list != null) {
+				list.remove(file);
+			}
+			list = netmail.get(linkId);
+			if (list != null) {
+				list.remove(file);
+			}
+		}
+	}
+
+	/**
+	 * Линк удален - удаляем его спул
+	 * 
+	 * @param link
+	 */
+	public void clear(Link link) {
+		synchronized (index) {
+			delete(index.remove(link.getId()));
+			delete(netmail.remove(link.getId()));
+			File dir = new File(root, String.valueOf(link.getId()));
+			new File(dir, NETMAIL).delete();
+			dir.delete();
+		}
+	}
+
+	private static void delete(Map<File, Boolean> list) {
+		if (list != null) {
+			for (File file : list.keySet()) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Пакет ( или бандл с одним пакетом ) для линка. Пишется во временный
+	 * каталог и переносится в спул в {@link #finish()}. Полон, когда файл
+	 * дорос до maxSize или пакет внутри - до maxPacket
+	 * 
+	 * @author agent
+	 * 
+	 */
+	public static final class Bundle {
+		private final Link link;
+		private final boolean pack;
+		private final File file;
+		private final FileOutputStream fos;
+		private final Counter counter;
+		private final Counter os;
+		private final FtnPkt header;
+		private final long maxSize;
+		private final long maxPacket;
+		private int count;
+
+		/**
+		 * @param link
+		 * @param address
+		 * @param pack
+		 *            zip-бандл или голый пакет
+		 * @param maxSize
+		 *            байт на диске, 0 - без ограничения
+		 * @param maxPacket
+		 *            байт в пакете, 0 - без ограничения
+		 * @throws IOException
+		 */
+		public Bundle(Link link, FtnAddress address, boolean pack,
+				long maxSize, long maxPacket) throws IOException {
+			this.link = link;
+			this.pack = pack;
+			this.maxSize = maxSize;
+			this.maxPacket = maxPacket;
+			file = FtnTools.createOutboundFile(link);
+			fos = new FileOutputStream(file);
+			counter = new Counter(fos);
+			os = new Counter((pack) ? new ZipBundleOutputStream(fos, counter,
+					FtnTools.generate8d() + ".pkt",
+					ZipBundleOutputStream.getLevel(link)) : counter);
+			header = new FtnPkt(FtnTools.selectOurAka(link), address,
+					link.getPaketPassword(), new Date());
+			header.write(os);
+		}
+
+		public OutputStream getOutputStream() {
+			return os;
+		}
+
+		/**
+		 * Письмо записано
+		 */
+		public void added() {
+			count++;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Записано на диск ( для бандла - уже сжатое )
+		 * 
+		 * @return
+		 */
+		public long getSize() {
+			return counter.written;
+		}
+
+		/**
+		 * Пора начинать следующий бандл
+		 * 
+		 * @return
+		 */
+		public boolean isFull() {
+			return (maxSize > 0 && counter.written >= maxSize)
+					|| (maxPacket > 0 && os.written >= maxPacket);
+		}
+
+		/**
+		 * Закрыть и перенести в спул. Если бандл не дописался, исключение
+		 * уходит вызывающему - тот вызывает {@link #abort()} и не двигает
+		 * курсоры
+		 * 
+		 * @return false - писем не было, файл удален
+		 * @throws IOException
+		 */
+		public boolean finish() throws IOException {
+			// не finalz(os): он глотает ошибку close(), а бандл дожимается
+			// именно там
+			os.write(header.finalz());
+			os.close();
+			if (count == 0) {
+				file.delete();
+				return false;
+			}
+			File target = getSelf().add(link, file, pack);
+			logger.l4(String.format("Spooled %s (%d messages, %d bytes) for %s",
+					target.getName(), count, target.length(),
+					link.getLinkAddress()));
+			return true;
+		}
+
+		/**
+		 * Закрыть без переноса ( ошибка записи )
+		 */
+		public void abort() {
+			try {
+				fos.close();
+			} catch (IOException ignore) {
+			}
+			file.delete();
+		}
+	}
+
+	private static final class Counter extends FilterOutputStream {
+		private long written;
+
+		private Counter(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			written++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			written += len;
+		}
+	}
+}
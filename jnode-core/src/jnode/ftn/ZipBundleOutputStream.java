@@ -0,0 +1,383 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import jnode.dto.Link;
+import jnode.dto.LinkOption;
+import jnode.main.MainHandler;
+
+/**
+ * Zip-бандл с одним пакетом. Пишется потоком прямо в файл, заголовок
+ * дописывается при закрытии. Сжатие - stored или deflate с заданным уровнем;
+ * большие пакеты жмутся блоками параллельно ( как pigz: каждый блок со
+ * словарем из хвоста предыдущего и sync flush ), на выходе обычный deflate
+ * 
+ * @author agent
+ * 
+ */
+public final class ZipBundleOutputStream extends OutputStream {
+	/**
+	 * Без сжатия
+	 */
+	public static final int STORED = -2;
+	private static final String TOSSER_ZIP_LEVEL = "tosser.zip_level";
+	private static final String TOSSER_ZIP_THREADS = "tosser.zip_threads";
+	private static final int BLOCK = 128 * 1024;
+	private static final int WINDOW = 32 * 1024;
+	private static ExecutorService shared;
+	private static boolean sharedInit = false;
+
+	private final FileChannel channel;
+	private final OutputStream out;
+	private final byte[] name;
+	private final int level;
+	private final ExecutorService deflaters;
+	private final int window;
+	private final int dosTime;
+	private final CRC32 crc = new CRC32();
+	private final LinkedList<Future<byte[]>> pending = new LinkedList<>();
+	private final byte[] buf = new byte[16384];
+	private Deflater deflater;
+	private byte[] block;
+	private int blockLen;
+	private byte[] dictionary;
+	private long size;
+	private long compressed;
+	private boolean closed;
+
+	/**
+	 * Уровень сжатия для линка: опция ziplevel, по умолчанию tosser.zip_level
+	 * 
+	 * @param link
+	 * @return 0-9, -1 ( по умолчанию ) или {@link #STORED}
+	 */
+	public static int getLevel(Link link) {
+		String level = (link != null && link.getId() != null) ? FtnTools
+				.getOptionString(link, LinkOption.STRING_ZIP_LEVEL) : "";
+		if (level == null || level.isEmpty()) {
+			level = MainHandler.getCurrentInstance().getProperty(
+					TOSSER_ZIP_LEVEL, "");
+		}
+		return parseLevel(level);
+	}
+
+	/**
+	 * @param level
+	 *            "store" или число
+	 * @return
+	 */
+	public static int parseLevel(String level) {
+		if (level == null) {
+			return Deflater.DEFAULT_COMPRESSION;
+		}
+		level = level.trim();
+		if (level.equalsIgnoreCase("store") || level.equalsIgnoreCase("stored")) {
+			return STORED;
+		}
+		try {
+			int ret = Integer.parseInt(level);
+			return (ret >= 0 && ret <= 9) ? ret : Deflater.DEFAULT_COMPRESSION;
+		} catch (NumberFormatException e) {
+			return Deflater.DEFAULT_COMPRESSION;
+		}
+	}
+
+	/**
+	 * Общий пул потоков для сжатия, tosser.zip_threads ( по умолчанию - по
+	 * числу процессоров ). null, если поток один
+	 * 
+	 * @return
+	 */
+	private static synchronized ExecutorService getShared() {
+		if (!sharedInit) {
+			sharedInit = true;
+			int threads = MainHandler.getCurrentInstance().getIntegerProperty(
+					TOSSER_ZIP_THREADS,
+					Runtime.getRuntime().availableProcessors());
+			if (threads > 1) {
+				shared = Executors.newFixedThreadPool(threads,
+						new ThreadFactory() {
+							private final AtomicInteger number = new AtomicInteger();
+
+							@Override
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r, "zip-deflater-"
+										+ number.getAndIncrement());
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * @param fos
+	 *            файл бандла с начала
+	 * @param out
+	 *            куда писать ( fos или обертка над ним )
+	 * @param name
+	 *            имя пакета внутри
+	 * @param level
+	 * @throws IOException
+	 */
+	public ZipBundleOutputStream(FileOutputStream fos, OutputStream out,
+			String name, int level) throws IOException {
+		this(fos.getChannel(), out, name, level, getShared());
+	}
+
+	/**
+	 * @param channel
+	 *            для записи заголовка при закрытии
+	 * @param out
+	 * @param name
+	 * @param level
+	 * @param deflaters
+	 *            пул для параллельного сжатия, null - сжимать в этом потоке
+	 * @throws IOException
+	 */
+	public ZipBundleOutputStream(FileChannel channel, OutputStream out,
+			String name, int level, ExecutorService deflaters)
+			throws IOException {
+		this.channel = channel;
+		this.out = out;
+		this.name = name.getBytes("US-ASCII");
+		this.level = level;
+		this.deflaters = (level == STORED) ? null : deflaters;
+		// сколько блоков может жаться одновременно
+		this.window = 2 * Runtime.getRuntime().availableProcessors();
+		if (level != STORED) {
+			block = new byte[BLOCK];
+			if (this.deflaters == null) {
+				deflater = new Deflater(level, true);
+			}
+		}
+		Calendar c = Calendar.getInstance();
+		int year = Math.max(c.get(Calendar.YEAR) - 1980, 0);
+		dosTime = (year << 25) | ((c.get(Calendar.MONTH) + 1) << 21)
+				| (c.get(Calendar.DAY_OF_MONTH) << 16)
+				| (c.get(Calendar.HOUR_OF_DAY) << 11)
+				| (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+		out.write(header(0x04034b50, 30).array());
+		out.write(this.name);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		crc.update(b, off, len);
+		size += len;
+		if (level == STORED) {
+			out.write(b, off, len);
+			compressed += len;
+			return;
+		}
+		while (len > 0) {
+			int n = Math.min(len, BLOCK - blockLen);
+			System.arraycopy(b, off, block, blockLen, n);
+			blockLen += n;
+			off += n;
+			len -= n;
+			if (blockLen == BLOCK) {
+				deflateBlock(false);
+			}
+		}
+	}
+
+	private void deflateBlock(boolean last) throws IOException {
+		if (deflaters == null) {
+			deflater.setInput(block, 0, blockLen);
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					writeCompressed(buf, deflater.deflate(buf));
+				}
+			} else {
+				while (!deflater.needsInput()) {
+					writeCompressed(buf, deflater.deflate(buf));
+				}
+			}
+		} else {
+			pending.add(deflaters.submit(new Deflate(block, blockLen,
+					dictionary, level, last)));
+			if (!last) {
+				dictionary = new byte[WINDOW];
+				System.arraycopy(block, blockLen - WINDOW, dictionary, 0,
+						WINDOW);
+				block = new byte[BLOCK];
+			}
+			while (!pending.isEmpty()
+					&& (last || pending.size() > window || pending.getFirst()
+							.isDone())) {
+				try {
+					byte[] data = pending.removeFirst().get();
+					writeCompressed(data, data.length);
+				} catch (InterruptedException | ExecutionException e) {
+					throw new IOException("Deflate failed", e);
+				}
+			}
+		}
+		blockLen = 0;
+	}
+
+	private void writeCompressed(byte[] data, int len) throws IOException {
+		out.write(data, 0, len);
+		compressed += len;
+	}
+
+	/**
+	 * Сжать данные и дописать central directory
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (level != STORED) {
+				deflateBlock(true);
+			}
+		} finally {
+			for (Future<byte[]> f : pending) {
+				f.cancel(false);
+			}
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+		long offset = 30 + name.length + compressed;
+		ByteBuffer central = header(0x02014b50, 46);
+		out.write(central.array());
+		out.write(name);
+		ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+		end.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+				.putShort((short) 1).putShort((short) 1)
+				.putInt(46 + name.length).putInt((int) offset)
+				.putShort((short) 0);
+		out.write(end.array());
+		out.flush();
+		ByteBuffer sizes = ByteBuffer.allocate(12).order(
+				ByteOrder.LITTLE_ENDIAN);
+		sizes.putInt((int) crc.getValue()).putInt((int) compressed)
+				.putInt((int) size);
+		((Buffer) sizes).flip();
+		channel.write(sizes, 14);
+		out.close();
+	}
+
+	/**
+	 * Local header ( 30 байт ) или запись central directory ( 46 байт )
+	 */
+	private ByteBuffer header(int signature, int length) {
+		ByteBuffer h = ByteBuffer.allocate(length).order(
+				ByteOrder.LITTLE_ENDIAN);
+		h.putInt(signature);
+		if (length == 46) {
+			h.putShort((short) 20);
+		}
+		h.putShort((short) 20).putShort((short) 0)
+				.putShort((short) ((level == STORED) ? 0 : 8))
+				.putShort((short) (dosTime & 0xffff))
+				.putShort((short) (dosTime >>> 16));
+		h.putInt((int) crc.getValue()).putInt((int) compressed)
+				.putInt((int) size).putShort((short) name.length)
+				.putShort((short) 0);
+		// для central directory остальное - нули, смещение пакета 0
+		return h;
+	}
+
+	/**
+	 * Блок deflate: словарь - хвост предыдущего блока, в конце sync flush (
+	 * или finish для последнего )
+	 */
+	private static final class Deflate implements Callable<byte[]> {
+		private final byte[] data;
+		private final int len;
+		private final byte[] dictionary;
+		private final int level;
+		private final boolean last;
+
+		private Deflate(byte[] data, int len, byte[] dictionary, int level,
+				boolean last) {
+			this.data = data;
+			this.len = len;
+			this.dictionary = dictionary;
+			this.level = level;
+			this.last = last;
+		}
+
+		@Override
+		public byte[] call() {
+			Deflater deflater = new Deflater(level, true);
+			try {
+				if (dictionary != null) {
+					deflater.setDictionary(dictionary);
+				}
+				deflater.setInput(data, 0, len);
+				ByteArrayOutputStream bos = new ByteArrayOutputStream(
+						len / 2 + 64);
+				byte[] buf = new byte[16384];
+				if (last) {
+					deflater.finish();
+					while (!deflater.finished()) {
+						bos.write(buf, 0, deflater.deflate(buf));
+					}
+				} else {
+					int n;
+					do {
+						n = deflater.deflate(buf, 0, buf.length,
+								Deflater.SYNC_FLUSH);
+						bos.write(buf, 0, n);
+					} while (n == buf.length);
+				}
+				return bos.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.cache;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.j256.ormlite.dao.GenericRawResults;
+
+import jnode.core.BloomFilter;
+import jnode.dto.Echoarea;
+import jnode.dto.Echomail;
+import jnode.logger.Logger;
+import jnode.main.MainHandler;
+import jnode.orm.ORMManager;
+
+/**
+ * Проверка эхомейла на дупы без похода в базу.
+ * 
+ * Для каждой эхи - фильтр Блума по всем MSGID, размер считается по числу
+ * сообщений в эхе. Если фильтр говорит "нет" - это точно не дуп. Если "да" -
+ * смотрим LRU последних MSGID, и только потом спрашиваем базу.
+ * 
+ * Все, что пишет эхомейл в базу, должно вызывать {@link #add(Echoarea, String)}
+ * после записи - иначе дуп такого сообщения не будет найден.
+ * 
+ * @author agent
+ * 
+ */
+public class DupeIndex {
+	private static final Logger logger = Logger.getLogger(DupeIndex.class);
+	private static final String DUPE_RECENT = "dupe.recent";
+	private static final double FPP = 0.01;
+	private static final int MIN_CAPACITY = 1024;
+	private static DupeIndex self;
+
+	private final Map<Long, AreaFilter> areas = new ConcurrentHashMap<>();
+	private final Map<Long, Boolean> recent;
+
+	public static synchronized DupeIndex getSelf() {
+		if (self == null) {
+			self = new DupeIndex();
+		}
+		return self;
+	}
+
+	private DupeIndex() {
+		final int size = MainHandler.getCurrentInstance().getIntegerProperty(
+				DUPE_RECENT, 10000);
+		recent = new LinkedHashMap<Long, Boolean>(size, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+				return size() > size;
+			}
+		};
+		warm(size);
+	}
+
+	/**
+	 * Последние сообщения из базы - в LRU
+	 * 
+	 * @param size
+	 */
+	private void warm(int size) {
+		GenericRawResults<String[]> results = ORMManager.get(Echomail.class)
+				.getRaw(String.format(
+						"SELECT echoarea_id, msgid FROM echomail"
+								+ " WHERE msgid IS NOT NULL"
+								+ " ORDER BY id DESC LIMIT %d", size));
+		if (results == null) {
+			return;
+		}
+		int n = 0;
+		try {
+			for (String[] row : results) {
+				remember(key(Long.valueOf(row[0]), row[1]));
+				n++;
+			}
+		} finally {
+			close(results);
+		}
+		logger.l4("Dupe index warmed with " + n + " recent messages");
+	}
+
+	/**
+	 * Есть ли сообщение с таким MSGID в эхе
+	 * 
+	 * @param area
+	 * @param msgid
+	 * @return
+	 */
+	public boolean isADupe(Echoarea area, String msgid) {
+		long key = key(area.getId(), msgid);
+		synchronized (recent) {
+			if (recent.get(key) != null) {
+				return true;
+			}
+		}
+		if (!filter(area).mightContain(key)) {
+			return false;
+		}
+		boolean dupe = ORMManager.get(Echomail.class).getFirstAnd("msgid",
+				"=", msgid, "echoarea_id", "=", area) != null;
+		if (dupe) {
+			remember(key);
+		}
+		return dupe;
+	}
+
+	/**
+	 * Сообщение записано в базу
+	 * 
+	 * @param area
+	 * @param msgid
+	 */
+	public void add(Echoarea area, String msgid) {
+		if (msgid == null) {
+			return;
+		}
+		long key = key(area.getId(), msgid);
+		AreaFilter filter = areas.get(area.getId());
+		if (filter != null) {
+			filter.put(key);
+		}
+		remember(key);
+	}
+
+	private void remember(long key) {
+		synchronized (recent) {
+			recent.put(key, Boolean.TRUE);
+		}
+	}
+
+	private AreaFilter filter(Echoarea area) {
+		AreaFilter filter = areas.get(area.getId());
+		if (filter == null) {
+			synchronized (areas) {
+				filter = areas.get(area.getId());
+				if (filter == null) {
+					filter = new AreaFilter(area.getId());
+					areas.put(area.getId(), filter);
+				}
+			}
+		}
+		filter.build();
+		return filter;
+	}
+
+	static long key(Long areaId, String msgid) {
+		// FNV-1a
+		long hash = 0xcbf29ce484222325L ^ areaId;
+		for (int i = 0; i < msgid.length(); i++) {
+			hash ^= msgid.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static void close(GenericRawResults<?> results) {
+		try {
+			results.close();
+		} catch (SQLException e) {
+			logger.l4("Error closing results", e);
+		}
+	}
+
+	/**
+	 * Фильтр одной эхи, строится из базы при первом обращении и
+	 * перестраивается, когда переполнится. Пока фильтр строится, работает
+	 * старый ( или база, если фильтра еще нет ), а все добавленное за это
+	 * время дописывается в новый фильтр перед заменой
+	 */
+	private static final class AreaFilter {
+		private final Long areaId;
+		private BloomFilter filter;
+		/** добавленное во время построения; null - не строится */
+		private List<Long> added;
+
+		private AreaFilter(Long areaId) {
+			this.areaId = areaId;
+		}
+
+		private void build() {
+			synchronized (this) {
+				if (added != null || (filter != null && !filter.isFull())) {
+					return;
+				}
+				added = new ArrayList<>();
+			}
+			BloomFilter bloom = null;
+			try {
+				bloom = load();
+			} finally {
+				synchronized (this) {
+					if (bloom != null) {
+						for (Long key : added) {
+							bloom.put(key);
+						}
+						filter = bloom;
+					}
+					added = null;
+				}
+			}
+			if (bloom != null) {
+				logger.l5("Dupe filter for area #" + areaId + " built: "
+						+ bloom.getCount() + " of " + bloom.getCapacity());
+			}
+		}
+
+		/**
+		 * Фильтр по всем MSGID эхи из базы
+		 * 
+		 * @return null - база не ответила
+		 */
+		private BloomFilter load() {
+			int count = 0;
+			GenericRawResults<String[]> results = ORMManager.get(
+					Echomail.class).getRaw(
+					String.format("SELECT count(id) FROM echomail"
+							+ " WHERE echoarea_id=%d", areaId));
+			if (results != null) {
+				try {
+					for (String[] row : results) {
+						count = Integer.valueOf(row[0]);
+					}
+				} finally {
+					close(results);
+				}
+			}
+			BloomFilter bloom = new BloomFilter(Math.max(MIN_CAPACITY,
+					count * 2), FPP);
+			results = ORMManager.get(Echomail.class).getRaw(
+					String.format("SELECT msgid FROM echomail"
+							+ " WHERE echoarea_id=%d AND msgid IS NOT NULL",
+							areaId));
+			if (results == null) {
+				return null;
+			}
+			try {
+				for (String[] row : results) {
+					bloom.put(key(areaId, row[0]));
+				}
+			} finally {
+				close(results);
+			}
+			return bloom;
+		}
+
+		private synchronized void put(long key) {
+			if (filter != null) {
+				filter.put(key);
+			}
+			if (added != null) {
+				added.add(key);
+			}
+		}
+
+		private synchronized boolean mightContain(long key) {
+			// фильтра нет - спросим базу
+			return filter == null || filter.mightContain(key);
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.cache;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jnode.dto.Echomail;
+import jnode.ftn.FtnTools;
+import jnode.ftn.types.Ftn2D;
+import jnode.ftn.types.Ftn2DPacked;
+import jnode.ftn.types.Ftn2DSet;
+import jnode.ftn.types.FtnAddress;
+import jnode.ftn.types.FtnMessage;
+import jnode.main.MainHandler;
+
+/**
+ * Кэш закодированного эхомейла: заголовок и текст письма кодируются в CP866
+ * один раз, для линка дописываются только адрес получателя и SEEN-BY/PATH.
+ * Хранятся последние tosser.encode_cache писем
+ * 
+ * @author agent
+ * 
+ */
+public class EchomailEncodeCache {
+	private static final String ENCODE_CACHE = "tosser.encode_cache";
+	private static EchomailEncodeCache self;
+	private final Map<Long, Encoded> cache;
+
+	public static synchronized EchomailEncodeCache getSelf() {
+		if (self == null) {
+			self = new EchomailEncodeCache(MainHandler.getCurrentInstance()
+					.getIntegerProperty(ENCODE_CACHE, 1024));
+		}
+		return self;
+	}
+
+	private EchomailEncodeCache(final int capacity) {
+		cache = new LinkedHashMap<Long, Encoded>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Encoded> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Закодированное письмо ( кодируется при первом обращении )
+	 * 
+	 * @param mail
+	 * @return
+	 */
+	public Encoded get(Echomail mail) {
+		synchronized (cache) {
+			Encoded ret = cache.get(mail.getId());
+			if (ret != null) {
+				return ret;
+			}
+		}
+		Ftn2DSet seenby = (mail.getSeenByPacked() != null) ? Ftn2DSet
+				.of(Ftn2DPacked.unpack(mail.getSeenByPacked())) : Ftn2DSet
+				.parse(mail.getSeenBy());
+		List<Ftn2D> path = (mail.getPathPacked() != null) ? Ftn2DPacked
+				.toList(mail.getPathPacked()) : FtnTools.read2D(mail
+				.getPath());
+		Encoded ret = new Encoded(toMessage(mail), seenby, path,
+				ourAddresses());
+		synchronized (cache) {
+			cache.put(mail.getId(), ret);
+		}
+		return ret;
+	}
+
+	private static FtnMessage toMessage(Echomail mail) {
+		FtnMessage message = new FtnMessage();
+		message.setNetmail(false);
+		message.setArea(mail.getArea().getName().toUpperCase());
+		message.setFromName(mail.getFromName());
+		message.setToName(mail.getToName());
+		message.setFromAddr(FtnTools.getPrimaryFtnAddress());
+		message.setToAddr(FtnTools.getPrimaryFtnAddress());
+		message.setDate(mail.getDate());
+		message.setSubject(mail.getSubject());
+		message.setText(mail.getText());
+		message.setSeenby(new ArrayList<Ftn2D>());
+		message.setPath(new ArrayList<Ftn2D>());
+		message.setMsgid(mail.getMsgid());
+		return message;
+	}
+
+	private static Ftn2DSet ourAddresses() {
+		List<FtnAddress> list = MainHandler.getCurrentInstance().getInfo()
+				.getAddressList();
+		int[] nets = new int[list.size()];
+		int[] nodes = new int[list.size()];
+		int n = 0;
+		for (FtnAddress addr : list) {
+			nets[n] = addr.getNet();
+			nodes[n++] = addr.getNode();
+		}
+		return Ftn2DSet.of(nets, nodes, n);
+	}
+
+	/**
+	 * Письмо без адреса получателя и SEEN-BY/PATH. Хвост SEEN-BY/PATH
+	 * запоминается для текущих подписчиков эхи и годится для всех линков,
+	 * которые в нем уже есть
+	 * 
+	 * @author agent
+	 * 
+	 */
+	public static final class Encoded {
+		private final short fromNode;
+		private final short fromNet;
+		private final byte[] body;
+		private final Ftn2DSet seenby;
+		private final Ftn2DSet base;
+		private final byte[] path;
+		private volatile Tail tail;
+
+		/**
+		 * @param message
+		 *            письмо с пустыми SEEN-BY и PATH
+		 * @param seenby
+		 *            SEEN-BY письма
+		 * @param path
+		 *            PATH письма
+		 * @param ours
+		 *            наши адреса
+		 */
+		Encoded(FtnMessage message, Ftn2DSet seenby, List<Ftn2D> path,
+				Ftn2DSet ours) {
+			fromNode = message.getFromAddr().getNode();
+			fromNet = message.getFromAddr().getNet();
+			this.seenby = seenby;
+			base = seenby.union(ours);
+			List<Ftn2D> fullPath = new ArrayList<>(path);
+			for (int i = 0; i < ours.size(); i++) {
+				Ftn2D me = new Ftn2D(Ftn2DSet.net(ours.get(i)),
+						Ftn2DSet.node(ours.get(i)));
+				if (!fullPath.contains(me)) {
+					fullPath.add(me);
+				}
+			}
+			this.path = encode(FtnTools.writePath(fullPath));
+			byte[] data = message.pack();
+			// 14 байт заголовка с адресами пишутся для линка, завершающий 0 - после хвоста
+			body = new byte[data.length - 15];
+			System.arraycopy(data, 14, body, 0, body.length);
+		}
+
+		/**
+		 * Линк уже есть в SEEN-BY исходного письма
+		 * 
+		 * @param net
+		 * @param node
+		 * @return
+		 */
+		public boolean isSeenBy(int net, int node) {
+			return seenby.contains(net, node);
+		}
+
+		/**
+		 * Записать письмо для линка
+		 * 
+		 * @param os
+		 * @param to
+		 *            адрес линка
+		 * @param subs
+		 *            подписчики эхи
+		 * @throws IOException
+		 */
+		public void write(OutputStream os, FtnAddress to, Subscribers subs)
+				throws IOException {
+			Tail t = tail;
+			if (t == null || t.subs != subs) {
+				Ftn2DSet all = base.union(subs.getSeenBy());
+				t = new Tail(subs, all, encode(FtnTools.writeSeenBy(all)));
+				tail = t;
+			}
+			byte[] bytes = t.bytes;
+			if (!t.seenby.contains(to.getNet(), to.getNode())) {
+				bytes = encode(FtnTools.writeSeenBy(t.seenby.with(to.getNet(),
+						to.getNode())));
+			}
+			DataOutputStream dos = new DataOutputStream(os);
+			dos.write(new byte[] { 2, 0 });
+			dos.writeShort(FtnTools.revShort(fromNode));
+			dos.writeShort(FtnTools.revShort(to.getNode()));
+			dos.writeShort(FtnTools.revShort(fromNet));
+			dos.writeShort(FtnTools.revShort(to.getNet()));
+			dos.write(new byte[] { 0, 0, 0, 0 });
+			dos.write(body);
+			dos.write(bytes);
+			dos.write(path);
+			dos.write(0);
+		}
+
+		private static byte[] encode(String s) {
+			return s.replace('\n', '\r').getBytes(FtnTools.CP_866);
+		}
+	}
+
+	private static final class Tail {
+		private final Subscribers subs;
+		private final Ftn2DSet seenby;
+		private final byte[] bytes;
+
+		private Tail(Subscribers subs, Ftn2DSet seenby, byte[] bytes) {
+			this.subs = subs;
+			this.seenby = seenby;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jnode.dto.Filemail;
+import jnode.ftn.FtnTools;
+import jnode.ftn.FtnTools.Ftn4DComparator;
+import jnode.ftn.types.FtnAddress;
+import jnode.main.MainHandler;
+
+/**
+ * Кэш SEEN-BY файлов фэхи: SEEN-BY из TIC, наши адреса и подписчики фэхи
+ * сливаются и сортируются один раз на файл и отдаются во все исходящие TIC.
+ * Пересобирается, если поменялись подписки
+ * 
+ * @author agent
+ * 
+ */
+public class FilemailSeenByCache {
+	private static final int CAPACITY = 256;
+	private static FilemailSeenByCache self;
+	private final Map<Long, SeenBy> cache;
+
+	public static synchronized FilemailSeenByCache getSelf() {
+		if (self == null) {
+			self = new FilemailSeenByCache();
+		}
+		return self;
+	}
+
+	private FilemailSeenByCache() {
+		cache = new LinkedHashMap<Long, SeenBy>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, SeenBy> eldest) {
+				return size() > CAPACITY;
+			}
+		};
+	}
+
+	/**
+	 * SEEN-BY для файла
+	 * 
+	 * @param mail
+	 * @return
+	 */
+	public SeenBy get(Filemail mail) {
+		Subscribers subs = SubscriptionCache.getSelf().getSubscribers(
+				mail.getFilearea());
+		synchronized (cache) {
+			SeenBy ret = cache.get(mail.getId());
+			if (ret != null && ret.subs == subs) {
+				return ret;
+			}
+		}
+		SeenBy ret = new SeenBy(mail, subs);
+		synchronized (cache) {
+			cache.put(mail.getId(), ret);
+		}
+		return ret;
+	}
+
+	public static final class SeenBy {
+		private final Subscribers subs;
+		private final Set<FtnAddress> origin;
+		private final List<FtnAddress> list;
+
+		private SeenBy(Filemail mail, Subscribers subs) {
+			this.subs = subs;
+			origin = new HashSet<>(FtnTools.read4D(mail.getSeenby()));
+			Set<FtnAddress> seenby = new HashSet<>(origin);
+			seenby.addAll(MainHandler.getCurrentInstance().getInfo()
+					.getAddressList());
+			for (int i = 0; i < subs.size(); i++) {
+				if (subs.hasAddress(i)) {
+					seenby.add(subs.getAddress(i));
+				}
+			}
+			List<FtnAddress> sorted = new ArrayList<>(seenby);
+			Collections.sort(sorted, new Ftn4DComparator());
+			list = Collections.unmodifiableList(sorted);
+		}
+
+		/**
+		 * Файл уже был у этого адреса ( по SEEN-BY из TIC )
+		 * 
+		 * @param address
+		 * @return
+		 */
+		public boolean isSeenBy(FtnAddress address) {
+			return origin.contains(address);
+		}
+
+		/**
+		 * Отсортированный SEEN-BY для исходящего TIC ( только чтение )
+		 * 
+		 * @return
+		 */
+		public List<FtnAddress> getList() {
+			return list;
+		}
+	}
+}
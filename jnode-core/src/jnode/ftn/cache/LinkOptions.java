@@ -0,0 +1,163 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jnode.dto.Link;
+import jnode.dto.LinkOption;
+import jnode.logger.Logger;
+import jnode.orm.ORMManager;
+
+/**
+ * Опции одного линка, уже разобранные по типам.
+ * 
+ * Опции всех линков читаются одним запросом и живут в памяти до
+ * {@link #invalidate()} - его нужно вызывать после любой записи в linkoptions
+ * 
+ * @author agent
+ * 
+ */
+public final class LinkOptions {
+	private static final Logger logger = Logger.getLogger(LinkOptions.class);
+	private static final LinkOptions EMPTY = new LinkOptions();
+	private static final Value NONE = new Value("");
+	private static final AtomicLong version = new AtomicLong();
+	private static volatile Map<Long, LinkOptions> snapshot;
+
+	private final Map<String, Value> values = new HashMap<>();
+
+	private LinkOptions() {
+	}
+
+	/**
+	 * Опции линка; для несохраненного линка - пустые
+	 * 
+	 * @param link
+	 * @return
+	 */
+	public static LinkOptions forLink(Link link) {
+		if (link == null || link.getId() == null) {
+			return EMPTY;
+		}
+		LinkOptions ret = snapshot().get(link.getId());
+		return (ret != null) ? ret : EMPTY;
+	}
+
+	/**
+	 * Опции изменились - перечитаем при следующем обращении
+	 */
+	public static void invalidate() {
+		version.incrementAndGet();
+		snapshot = null;
+	}
+
+	private static Map<Long, LinkOptions> snapshot() {
+		Map<Long, LinkOptions> ret = snapshot;
+		if (ret == null) {
+			synchronized (LinkOptions.class) {
+				ret = snapshot;
+				if (ret == null) {
+					long v = version.get();
+					ret = load();
+					if (v == version.get()) {
+						snapshot = ret;
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static Map<Long, LinkOptions> load() {
+		Map<Long, LinkOptions> ret = new HashMap<>();
+		int n = 0;
+		for (LinkOption option : ORMManager.get(LinkOption.class).getAll()) {
+			if (option.getLink() == null || option.getOption() == null) {
+				continue;
+			}
+			LinkOptions options = ret.get(option.getLink().getId());
+			if (options == null) {
+				options = new LinkOptions();
+				ret.put(option.getLink().getId(), options);
+			}
+			// имена сравниваются без учета регистра, как в MySQL; при
+			// повторах берется первая запись, как раньше getFirstAnd
+			String name = option.getOption().toLowerCase();
+			if (!options.values.containsKey(name)) {
+				options.values.put(name, new Value(option.getValue()));
+			}
+			n++;
+		}
+		logger.l5("Loaded " + n + " options for " + ret.size() + " links");
+		return ret;
+	}
+
+	private Value value(String name) {
+		Value ret = values.get(name.toLowerCase());
+		return (ret != null) ? ret : NONE;
+	}
+
+	public String getString(String name) {
+		return value(name).string;
+	}
+
+	public boolean getBooleanDefFalse(String name) {
+		return value(name).on;
+	}
+
+	public boolean getBooleanDefTrue(String name) {
+		return !value(name).off;
+	}
+
+	public long getLong(String name) {
+		return value(name).number;
+	}
+
+	public String[] getStringArray(String name) {
+		return value(name).string.split(" ");
+	}
+
+	/**
+	 * Значение опции, разобранное один раз при загрузке
+	 */
+	private static final class Value {
+		private final String string;
+		private final boolean on;
+		private final boolean off;
+		private final long number;
+
+		private Value(String value) {
+			string = (value != null) ? value : "";
+			on = string.equalsIgnoreCase("TRUE") || string.equalsIgnoreCase("ON");
+			off = string.equalsIgnoreCase("FALSE")
+					|| string.equalsIgnoreCase("OFF");
+			long n = 0;
+			try {
+				n = Long.valueOf(string);
+			} catch (NumberFormatException ignore) {
+			}
+			number = n;
+		}
+	}
+}
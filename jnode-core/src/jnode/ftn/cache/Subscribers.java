@@ -0,0 +1,127 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.cache;
+
+import jnode.dto.Link;
+import jnode.ftn.types.Ftn2DSet;
+import jnode.ftn.types.FtnAddress;
+
+/**
+ * Подписчики одной эхи ( или фэхи ): параллельные массивы по линкам
+ * 
+ * @author agent
+ * 
+ */
+public final class Subscribers {
+	static final Subscribers EMPTY = new Subscribers(new Link[0],
+			new boolean[0]);
+	private final Link[] links;
+	private final long[] ids;
+	private final boolean[] paused;
+	private final boolean[] addressed;
+	private final int[] zones;
+	private final int[] nets;
+	private final int[] nodes;
+	private final int[] points;
+	private final Ftn2DSet seenby;
+
+	Subscribers(Link[] links, boolean[] paused) {
+		int n = links.length;
+		this.links = links;
+		this.paused = paused;
+		this.ids = new long[n];
+		this.addressed = new boolean[n];
+		this.zones = new int[n];
+		this.nets = new int[n];
+		this.nodes = new int[n];
+		this.points = new int[n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = links[i].getId();
+			try {
+				FtnAddress address = FtnAddress.valueOf(links[i].getLinkAddress());
+				zones[i] = address.getZone();
+				nets[i] = address.getNet();
+				nodes[i] = address.getNode();
+				points[i] = address.getPoint();
+				addressed[i] = true;
+			} catch (RuntimeException e) {
+				addressed[i] = false;
+			}
+		}
+		int[] snets = new int[n];
+		int[] snodes = new int[n];
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if (addressed[i]) {
+				snets[m] = nets[i];
+				snodes[m++] = nodes[i];
+			}
+		}
+		seenby = Ftn2DSet.of(snets, snodes, m);
+	}
+
+	public int size() {
+		return links.length;
+	}
+
+	public Link getLink(int i) {
+		return links[i];
+	}
+
+	public long getId(int i) {
+		return ids[i];
+	}
+
+	public boolean isPaused(int i) {
+		return paused[i];
+	}
+
+	/**
+	 * Адрес линка разобрался
+	 * 
+	 * @param i
+	 * @return
+	 */
+	public boolean hasAddress(int i) {
+		return addressed[i];
+	}
+
+	public int getNet(int i) {
+		return nets[i];
+	}
+
+	public int getNode(int i) {
+		return nodes[i];
+	}
+
+	/**
+	 * 2D-адреса всех подписчиков - для SEEN-BY
+	 * 
+	 * @return
+	 */
+	public Ftn2DSet getSeenBy() {
+		return seenby;
+	}
+
+	public FtnAddress getAddress(int i) {
+		return new FtnAddress(zones[i], nets[i], nodes[i], points[i]);
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.cache;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.j256.ormlite.dao.GenericRawResults;
+
+import jnode.dto.Echoarea;
+import jnode.dto.FileSubscription;
+import jnode.dto.Filearea;
+import jnode.dto.Link;
+import jnode.dto.LinkOption;
+import jnode.dto.Subscription;
+import jnode.logger.Logger;
+import jnode.orm.ORMManager;
+
+/**
+ * Кэш подписок: для каждой эхи и фэхи - список линков с флагом паузы.
+ * Строится целиком при первом обращении ( пауза берется из
+ * {@link LinkOptions} ); все, что меняет подписки, линки или паузу, должно
+ * вызывать
+ * {@link #invalidate()}
+ * 
+ * @author agent
+ * 
+ */
+public class SubscriptionCache {
+	private static final Logger logger = Logger
+			.getLogger(SubscriptionCache.class);
+	private static SubscriptionCache self;
+	private final AtomicLong version = new AtomicLong();
+	private volatile Snapshot snapshot;
+
+	public static synchronized SubscriptionCache getSelf() {
+		if (self == null) {
+			self = new SubscriptionCache();
+		}
+		return self;
+	}
+
+	private SubscriptionCache() {
+	}
+
+	public Subscribers getSubscribers(Echoarea area) {
+		Subscribers ret = snapshot().echoareas.get(area.getId());
+		return (ret != null) ? ret : Subscribers.EMPTY;
+	}
+
+	public Subscribers getSubscribers(Filearea area) {
+		Subscribers ret = snapshot().fileareas.get(area.getId());
+		return (ret != null) ? ret : Subscribers.EMPTY;
+	}
+
+	/**
+	 * Подписки изменились - перечитаем при следующем обращении
+	 */
+	public void invalidate() {
+		version.incrementAndGet();
+		snapshot = null;
+	}
+
+	private Snapshot snapshot() {
+		Snapshot ret = snapshot;
+		if (ret == null) {
+			synchronized (this) {
+				ret = snapshot;
+				if (ret == null) {
+					long v = version.get();
+					ret = build();
+					// если пока строили кто-то сбросил кэш - не запоминаем
+					if (v == version.get()) {
+						snapshot = ret;
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	private Snapshot build() {
+		Map<Long, Link> links = new HashMap<>();
+		for (Link link : ORMManager.get(Link.class).getAll()) {
+			links.put(link.getId(), link);
+		}
+		Set<Long> paused = new HashSet<>();
+		for (Link link : links.values()) {
+			if (LinkOptions.forLink(link).getBooleanDefFalse(
+					LinkOption.BOOLEAN_PAUSE)) {
+				paused.add(link.getId());
+			}
+		}
+		Snapshot ret = new Snapshot();
+		load(ret.echoareas, Subscription.class,
+				"SELECT echoarea_id, link_id FROM subscription", links, paused);
+		load(ret.fileareas, FileSubscription.class,
+				"SELECT filearea_id, link_id FROM filesubscription", links,
+				paused);
+		logger.l5("Subscriptions loaded: " + ret.echoareas.size()
+				+ " echoareas, " + ret.fileareas.size() + " fileareas");
+		return ret;
+	}
+
+	private void load(Map<Long, Subscribers> target, Class<?> clazz,
+			String query, Map<Long, Link> links, Set<Long> paused) {
+		Map<Long, List<Link>> areas = new HashMap<>();
+		GenericRawResults<String[]> results = ORMManager.get(clazz).getRaw(
+				query);
+		if (results == null) {
+			return;
+		}
+		try {
+			for (String[] row : results) {
+				if (row[0] == null || row[1] == null) {
+					continue;
+				}
+				Link link = links.get(Long.valueOf(row[1]));
+				if (link == null) {
+					continue;
+				}
+				Long areaId = Long.valueOf(row[0]);
+				List<Link> list = areas.get(areaId);
+				if (list == null) {
+					list = new ArrayList<>();
+					areas.put(areaId, list);
+				}
+				list.add(link);
+			}
+		} finally {
+			try {
+				results.close();
+			} catch (SQLException e) {
+				logger.l4("Error closing results", e);
+			}
+		}
+		for (Map.Entry<Long, List<Link>> entry : areas.entrySet()) {
+			List<Link> list = entry.getValue();
+			Link[] array = list.toArray(new Link[list.size()]);
+			boolean[] pause = new boolean[array.length];
+			for (int i = 0; i < array.length; i++) {
+				pause[i] = paused.contains(array[i].getId());
+			}
+			target.put(entry.getKey(), new Subscribers(array, pause));
+		}
+	}
+
+	private static final class Snapshot {
+		private final Map<Long, Subscribers> echoareas = new HashMap<>();
+		private final Map<Long, Subscribers> fileareas = new HashMap<>();
+	}
+}
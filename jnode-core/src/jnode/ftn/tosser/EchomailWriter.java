@@ -0,0 +1,390 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.tosser;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jnode.dto.Echoarea;
+import jnode.dto.Echomail;
+import jnode.dto.Link;
+import jnode.ftn.EchomailCursors;
+import jnode.logger.Logger;
+import jnode.orm.ORMManager;
+
+import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.jdbc.TypeValMapper;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.table.TableInfo;
+
+/**
+ * Пакетная запись эхомейла. Echomail пишется по отдельному соединению одним
+ * JDBC batch'ем ( addBatch/executeBatch ) и одной транзакцией на batch_size
+ * сообщений; линки забирают его по курсорам подписок ( {@link EchomailCursors}
+ * ). INSERT строится по описанию таблицы из ORMLite, id берутся из
+ * getGeneratedKeys и до commit отмечаются в курсорах как незакоммиченные.
+ * 
+ * Сообщение считается обработанным ( и пакет может быть удален ) только после
+ * commit, после commit же сохраняется контрольная точка пакета. Если jNode
+ * упадет раньше или commit не пройдет - пакет останется в inbound и будет
+ * дочитан с контрольной точки.
+ * 
+ * Если batch не записался, он откатывается и сообщения пишутся заново по
+ * одному: так находится сообщение, которое не пишется. Его пакет помечается
+ * как bad, остальные сообщения записываются. При потере соединения с базой
+ * оставшиеся пакеты откладываются до следующего разбора.
+ * 
+ * Не потокобезопасен - у каждой очереди тоссера свой writer.
+ * 
+ * @author agent
+ * 
+ */
+class EchomailWriter {
+	private static final Logger logger = Logger.getLogger(EchomailWriter.class);
+	private final FtnTosser tosser;
+	private final int batchSize;
+	private final List<Written> batch = new ArrayList<>();
+	private final Set<String> msgids = new HashSet<>();
+	private JdbcConnectionSource source;
+	private DatabaseConnection connection;
+	private Dao<Echomail, ?> dao;
+	private PreparedStatement insert;
+	private FieldType[] columns;
+
+	EchomailWriter(FtnTosser tosser, int batchSize) {
+		this.tosser = tosser;
+		this.batchSize = (batchSize > 0) ? batchSize : 1;
+	}
+
+	/**
+	 * Сообщение с таким msgid уже есть в незакоммиченном batch'е
+	 * 
+	 * @param area
+	 * @param msgid
+	 * @return
+	 */
+	boolean isPending(Echoarea area, String msgid) {
+		return msgids.contains(area.getId() + " " + msgid);
+	}
+
+	/**
+	 * Записать сообщение ( в базу оно попадет в {@link #flush()} ).
+	 * packet.done() будет вызван после commit ( или rollback )
+	 * 
+	 * @param mail
+	 * @param links
+	 *            подписчики - для crash-опроса
+	 * @param packet
+	 * @param index
+	 *            номер сообщения в пакете
+	 */
+	void write(Echomail mail, List<Link> links, TossedPacket packet, int index) {
+		batch.add(new Written(mail, links, packet, index));
+		if (mail.getMsgid() != null) {
+			msgids.add(mail.getArea().getId() + " " + mail.getMsgid());
+		}
+		if (batch.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Записать и закоммитить все, что накоплено
+	 */
+	void flush() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			open();
+			insert();
+			connection.commit(null);
+		} catch (SQLException | RuntimeException e) {
+			logger.l1("Error while writing echomail, batch is rolled back", e);
+			rollback(e);
+			return;
+		}
+		logger.l5("Commited " + batch.size() + " echomail messages");
+		Set<TossedPacket> packets = new HashSet<>();
+		for (Written w : batch) {
+			finish(w);
+			packets.add(w.packet);
+		}
+		checkpoint(packets);
+		batch.clear();
+		msgids.clear();
+	}
+
+	/**
+	 * Весь batch одним executeBatch
+	 * 
+	 * @throws SQLException
+	 */
+	private void insert() throws SQLException {
+		EchomailCursors.beginWrite();
+		try {
+			for (Written w : batch) {
+				int i = 1;
+				for (FieldType column : columns) {
+					Object value = column.extractJavaFieldToSqlArgValue(w.mail);
+					if (value == null) {
+						insert.setNull(i++, TypeValMapper
+								.getTypeValForSqlType(column.getSqlType()));
+					} else {
+						insert.setObject(i++, value);
+					}
+				}
+				insert.addBatch();
+			}
+			insert.executeBatch();
+			try (ResultSet keys = insert.getGeneratedKeys()) {
+				for (Written w : batch) {
+					if (!keys.next()) {
+						throw new SQLException("No id for echomail in batch");
+					}
+					w.mail.setId(keys.getLong(1));
+					EchomailCursors.pending(w.mail.getId());
+				}
+			}
+		} finally {
+			EchomailCursors.endWrite();
+		}
+	}
+
+	private void finish(Written w) {
+		EchomailCursors.finished(w.mail.getId());
+		tosser.written(w.mail, w.links);
+		w.packet.done(w.index);
+	}
+
+	private void checkpoint(Set<TossedPacket> packets) {
+		for (TossedPacket packet : packets) {
+			packet.checkpoint();
+		}
+	}
+
+	/**
+	 * Откатить batch и записать его сообщения по одному
+	 * 
+	 * @param cause
+	 */
+	private void rollback(Exception cause) {
+		rollbackQuietly();
+		List<Written> failed = new ArrayList<>(batch);
+		batch.clear();
+		msgids.clear();
+		for (Written w : failed) {
+			if (w.mail.getId() != null) {
+				EchomailCursors.finished(w.mail.getId());
+				w.mail.setId(null);
+			}
+		}
+		boolean connectionLost = isConnectionError(cause);
+		Set<TossedPacket> packets = new HashSet<>();
+		for (Written w : failed) {
+			if (connectionLost) {
+				w.packet.retry("Database connection error");
+				w.packet.done();
+				continue;
+			}
+			try {
+				open();
+				EchomailCursors.beginWrite();
+				try {
+					dao.create(w.mail);
+					EchomailCursors.pending(w.mail.getId());
+				} finally {
+					EchomailCursors.endWrite();
+				}
+				connection.commit(null);
+			} catch (SQLException | RuntimeException e) {
+				rollbackQuietly();
+				if (w.mail.getId() != null) {
+					EchomailCursors.finished(w.mail.getId());
+				}
+				if (isConnectionError(e)) {
+					logger.l1("Database connection lost", e);
+					connectionLost = true;
+					w.packet.retry("Database connection error");
+				} else {
+					logger.l1("Echomail from " + w.packet.getFile().getName()
+							+ " can not be written", e);
+					w.packet.fail("Database error: " + e.getMessage());
+				}
+				w.packet.done();
+				continue;
+			}
+			finish(w);
+			packets.add(w.packet);
+		}
+		checkpoint(packets);
+	}
+
+	private void rollbackQuietly() {
+		if (connection != null) {
+			try {
+				connection.rollback(null);
+			} catch (SQLException e) {
+				logger.l2("Rollback failed", e);
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Ошибка соединения с базой ( SQLState 08xxx ) - сообщение тут ни при чем
+	 * 
+	 * @param e
+	 * @return
+	 */
+	private static boolean isConnectionError(Throwable e) {
+		for (; e != null; e = e.getCause()) {
+			if (e instanceof SQLTransientConnectionException
+					|| e instanceof SQLNonTransientConnectionException
+					|| e instanceof SQLRecoverableException) {
+				return true;
+			}
+			if (e instanceof SQLException) {
+				String state = ((SQLException) e).getSQLState();
+				if (state != null && state.startsWith("08")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void open() throws SQLException {
+		if (connection != null) {
+			return;
+		}
+		// таблицы создаются через основной source
+		ORMManager.get(Echomail.class);
+		source = ORMManager.openSource();
+		try {
+			connection = source.getReadWriteConnection();
+			source.saveSpecialConnection(connection);
+			connection.setAutoCommit(false);
+			dao = DaoManager.createDao(source, Echomail.class);
+			prepare();
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * INSERT по полям Echomail, как у dao.create(): generated id не
+	 * передается ( или берется из sequence - Postgres )
+	 * 
+	 * @throws SQLException
+	 */
+	private void prepare() throws SQLException {
+		TableInfo<Echomail, ?> table = ((BaseDaoImpl<Echomail, ?>) dao)
+				.getTableInfo();
+		DatabaseType type = source.getDatabaseType();
+		List<FieldType> fields = new ArrayList<>();
+		StringBuilder names = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+		for (FieldType field : table.getFieldTypes()) {
+			if (field.isForeignCollection()) {
+				continue;
+			}
+			if (field.isGeneratedId() && !field.isGeneratedIdSequence()) {
+				continue;
+			}
+			if (names.length() > 0) {
+				names.append(", ");
+				values.append(", ");
+			}
+			type.appendEscapedEntityName(names, field.getColumnName());
+			if (field.isGeneratedIdSequence()) {
+				values.append("NEXTVAL('");
+				type.appendEscapedEntityName(values,
+						field.getGeneratedIdSequence());
+				values.append("')");
+			} else {
+				values.append('?');
+				fields.add(field);
+			}
+		}
+		StringBuilder sql = new StringBuilder("INSERT INTO ");
+		type.appendEscapedEntityName(sql, table.getTableName());
+		sql.append(" (").append(names).append(") VALUES (").append(values)
+				.append(')');
+		columns = fields.toArray(new FieldType[fields.size()]);
+		insert = ((JdbcDatabaseConnection) connection).getInternalConnection()
+				.prepareStatement(sql.toString(),
+						new String[] { table.getIdField().getColumnName() });
+	}
+
+	private void close() {
+		if (insert != null) {
+			try {
+				insert.close();
+			} catch (SQLException ignore) {
+			}
+		}
+		if (dao != null) {
+			DaoManager.unregisterDao(source, dao);
+		}
+		if (connection != null) {
+			source.clearSpecialConnection(connection);
+		}
+		if (source != null) {
+			source.closeQuietly();
+		}
+		insert = null;
+		columns = null;
+		dao = null;
+		connection = null;
+		source = null;
+	}
+
+	private static final class Written {
+		private final Echomail mail;
+		private final List<Link> links;
+		private final TossedPacket packet;
+		private final int index;
+
+		private Written(Echomail mail, List<Link> links, TossedPacket packet,
+				int index) {
+			this.mail = mail;
+			this.links = links;
+			this.packet = packet;
+			this.index = index;
+		}
+	}
+}
@@ -26,10 +26,20 @@ import jnode.event.NewEchomailEvent;
 import jnode.event.NewFilemailEvent;
 import jnode.event.NewNetmailEvent;
 import jnode.event.Notifier;
+import jnode.ftn.EchomailCursors;
 import jnode.ftn.FtnTools;
+import jnode.ftn.SpoolManager;
+import jnode.ftn.ZipBundleOutputStream;
+import jnode.ftn.cache.DupeIndex;
+import jnode.ftn.cache.EchomailEncodeCache;
+import jnode.ftn.cache.EchomailEncodeCache.Encoded;
+import jnode.ftn.cache.FilemailSeenByCache;
+import jnode.ftn.cache.Subscribers;
+import jnode.ftn.cache.SubscriptionCache;
 import jnode.ftn.types.*;
 import jnode.logger.Logger;
 import jnode.main.MainHandler;
+import jnode.main.threads.OutboundBuilder;
 import jnode.main.threads.PollQueue;
 import jnode.main.threads.TosserQueue;
 import jnode.orm.ORMManager;
@@ -38,10 +48,10 @@ import jnode.protocol.io.Message;
 import java.io.*;
 import java.text.MessageFormat;
 import java.util.*;
-import java.util.zip.CRC32;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipInputStream;
 
 import static jnode.ftn.FtnTools.*;
 
@@ -53,11 +63,60 @@ public class FtnTosser {
 	private static final String FILEECHO_PATH = "fileecho.path";
 	private static final Logger logger = Logger.getLogger(FtnTosser.class);
 	private static final String MAIL_LIMIT = "tosser.mail_limit";
+	private static final String TOSSER_THREADS = "tosser.threads";
+	private static final String TOSSER_QUEUE = "tosser.queue";
+	private static final String TOSSER_BATCH_SIZE = "tosser.batch_size";
+	private static final String TOSSER_STREAM = "tosser.stream";
+	private static final String TOSSER_BUNDLE_SIZE = "tosser.bundle_size";
+	private static final String TOSSER_PACKET_SIZE = "tosser.packet_size";
+	public static final String TOSSER_PACKED_SEENBY = "tosser.packed_seenby";
+	public static final String TOSSER_RETRY_LIMIT = "tosser.retry_limit";
+	private static final Pattern PKT = Pattern.compile("^[a-f0-9]{8}\\.pkt$");
+	private static final Pattern INBOUND_PKT = Pattern
+			.compile("(s|u)inb\\d*.pkt");
+	private static final Pattern INBOUND_BUNDLE = Pattern
+			.compile("sinb\\d*.bun");
+	private static final Pattern BUNDLE = Pattern
+			.compile("^\\w{8}\\.(mo|tu|we|th|fr|sa|su)[0-9a-z]$");
+	private static final Pattern TIC = Pattern.compile("^[a-z0-9]{8}\\.tic$");
+	private static final Pattern LO = Pattern.compile("^[0-9a-f]{8}\\..?lo$");
 	private final Map<String, Integer> tossed = new HashMap<>();
 	private final Map<String, Integer> bad = new HashMap<>();
-	private final Set<Link> pollLinks = new HashSet<>();
+	private final Set<Link> pollLinks = Collections
+			.synchronizedSet(new HashSet<Link>());
+	private final TossingPipeline pipeline;
+	private final EchomailWriter writer;
 
-	private boolean running;
+	private volatile boolean running;
+
+	public FtnTosser() {
+		int threads = MainHandler.getCurrentInstance().getIntegerProperty(
+				TOSSER_THREADS, 1);
+		int batchSize = MainHandler.getCurrentInstance().getIntegerProperty(
+				TOSSER_BATCH_SIZE, 100);
+		if (threads > 1) {
+			pipeline = new TossingPipeline(this, threads, MainHandler
+					.getCurrentInstance().getIntegerProperty(TOSSER_QUEUE,
+							1000), batchSize);
+			writer = null;
+		} else {
+			pipeline = null;
+			writer = new EchomailWriter(this, batchSize);
+		}
+	}
+
+	/**
+	 * Счетчики для статистики - пишутся из нескольких потоков
+	 * 
+	 * @param map
+	 * @param key
+	 */
+	private void count(Map<String, Integer> map, String key) {
+		synchronized (map) {
+			Integer n = map.get(key);
+			map.put(key, (n == null) ? 1 : n + 1);
+		}
+	}
 
 	/**
 	 * Разбор нетмейла
@@ -74,8 +133,7 @@ public class FtnTosser {
 		boolean drop = checkNetmailMustDropped(netmail);
 
 		if (drop) {
-			Integer n = bad.get("netmail");
-			bad.put("netmail", (n == null) ? 1 : n + 1);
+			count(bad, "netmail");
 		} else {
 			if ((netmail.getAttribute() & FtnMessage.ATTR_ARQ) > 0) {
 				writeReply(netmail, "ARQ reply",
@@ -96,8 +154,7 @@ public class FtnTosser {
 			dbnm.setAttr(netmail.getAttribute());
 			ORMManager.get(Netmail.class).save(dbnm);
 			Notifier.INSTANSE.notify(new NewNetmailEvent(dbnm));
-			Integer n = tossed.get("netmail");
-			tossed.put("netmail", (n == null) ? 1 : n + 1);
+			count(tossed, "netmail");
 			if (routeVia == null) {
 				logger.l4(String
 						.format("Netmail %s -> %s is not transferred ( routing not found )",
@@ -116,19 +173,30 @@ public class FtnTosser {
 		}
 	}
 
-	private void tossEchomail(FtnMessage echomail, Link link, boolean secure) {
-
-		if (!secure) {
+	/**
+	 * Разбор эхомейла
+	 * 
+	 * @param echomail
+	 * @param packet
+	 * @param index
+	 *            номер сообщения в пакете
+	 * @param writer
+	 * @return true, если сообщение отдано в writer и packet.done() будет
+	 *         вызван после commit
+	 */
+	private boolean tossEchomail(FtnMessage echomail, TossedPacket packet,
+			int index, EchomailWriter writer) {
+		Link link = packet.getLink();
+		if (!packet.isSecure()) {
 			logger.l3("Echomail via unsecure is dropped");
-			return;
+			return false;
 		}
 		Echoarea area = getAreaByName(echomail.getArea(), link);
 		if (area == null) {
 			logger.l3("Echoarea " + echomail.getArea()
 					+ " is not availible for " + link.getLinkAddress());
-			Integer n = bad.get(echomail.getArea());
-			bad.put(echomail.getArea(), (n == null) ? 1 : n + 1);
-			return;
+			count(bad, echomail.getArea());
+			return false;
 		}
 
 		Long rl = getOptionLong(link, LinkOption.LONG_LINK_LEVEL);
@@ -145,19 +213,18 @@ public class FtnTosser {
 			logger.l3("Echoarea " + echomail.getArea()
 					+ " is not availible for " + link.getLinkAddress()
 					+ " (level mismatch)");
-			Integer n = bad.get(echomail.getArea());
-			bad.put(echomail.getArea(), (n == null) ? 1 : n + 1);
-			return;
+			count(bad, echomail.getArea());
+			return false;
 		}
 		// попадаются злобные сообщения без MSGID
 
 		if (echomail.getMsgid() != null) {
-			if (isADupe(area, echomail.getMsgid())) {
+			if (writer.isPending(area, echomail.getMsgid())
+					|| isADupe(area, echomail.getMsgid())) {
 				logger.l3("Message " + echomail.getArea() + " "
 						+ echomail.getMsgid() + " is a dupe");
-				Integer n = bad.get(echomail.getArea());
-				bad.put(echomail.getArea(), (n == null) ? 1 : n + 1);
-				return;
+				count(bad, echomail.getArea());
+				return false;
 			}
 		}
 
@@ -171,26 +238,40 @@ public class FtnTosser {
 		mail.setToName(echomail.getToName());
 		mail.setSubject(echomail.getSubject());
 		mail.setText(echomail.getText());
-		mail.setSeenBy(write2D(echomail.getSeenby(), true));
-		mail.setPath(write2D(echomail.getPath(), false));
+		if (MainHandler.getCurrentInstance().getBooleanProperty(
+				TOSSER_PACKED_SEENBY, false)) {
+			mail.setSeenByPacked(Ftn2DPacked.pack(Ftn2DSet.of(echomail
+					.getSeenby())));
+			mail.setPathPacked(Ftn2DPacked.pack(echomail.getPath()));
+		} else {
+			mail.setSeenBy(write2D(echomail.getSeenby(), true));
+			mail.setPath(write2D(echomail.getPath(), false));
+		}
 		mail.setMsgid(echomail.getMsgid());
-		ORMManager.get(Echomail.class).save(mail);
-		if (mail.getId() != null) {
-			for (Subscription sub : getSubscription(area)) {
-				if (link == null
-						|| !sub.getLink().equals(link)
-						&& !getOptionBooleanDefFalse(sub.getLink(),
-								LinkOption.BOOLEAN_PAUSE)) {
-					ORMManager.get(EchomailAwaiting.class).save(
-							new EchomailAwaiting(sub.getLink(), mail));
-					pollLinks.add(sub.getLink());
-				}
+		mail.setSourceLinkId((link != null) ? link.getId() : null);
+		Subscribers subs = SubscriptionCache.getSelf().getSubscribers(area);
+		List<Link> links = new ArrayList<>(subs.size());
+		for (int i = 0; i < subs.size(); i++) {
+			if (link == null || subs.getId(i) != link.getId()
+					&& !subs.isPaused(i)) {
+				links.add(subs.getLink(i));
 			}
 		}
-		Notifier.INSTANSE.notify(new NewEchomailEvent(mail));
-		Integer n = tossed.get(echomail.getArea());
-		tossed.put(echomail.getArea(), (n == null) ? 1 : n + 1);
+		writer.write(mail, links, packet, index);
+		count(tossed, echomail.getArea());
+		return true;
+	}
 
+	/**
+	 * Эхомейл закоммичен в базу
+	 * 
+	 * @param mail
+	 * @param links
+	 */
+	void written(Echomail mail, List<Link> links) {
+		DupeIndex.getSelf().add(mail.getArea(), mail.getMsgid());
+		pollLinks.addAll(links);
+		Notifier.INSTANSE.notify(new NewEchomailEvent(mail));
 	}
 
 	/**
@@ -221,6 +302,99 @@ public class FtnTosser {
 		return 0;
 	}
 
+	/**
+	 * Разбор принятого по binkp файла без распаковки в inbound: пакет или
+	 * бандл от защищенного линка переносится в inbound как журнал и
+	 * разбирается прямо оттуда. Журнал удаляется после записи всех сообщений,
+	 * а после падения разбирается заново из
+	 * {@link #tossInboundDirectory()}
+	 * 
+	 * @param message
+	 * @param file
+	 *            полностью принятый файл
+	 * @return false - файл нужно разбирать через
+	 *         {@link #tossIncoming(Message)}
+	 */
+	public static boolean tossReceived(Message message, File file) {
+		if (file == null
+				|| !message.isSecure()
+				|| !MainHandler.getCurrentInstance().getBooleanProperty(
+						TOSSER_STREAM, false)) {
+			return false;
+		}
+		String filename = message.getMessageName().toLowerCase();
+		String extension;
+		if (PKT.matcher(filename).matches()) {
+			extension = "pkt";
+		} else if (BUNDLE.matcher(filename).matches()) {
+			extension = "bun";
+		} else {
+			return false;
+		}
+		return TosserQueue.getInstanse().toss(message.getMessageName(), file,
+				extension);
+	}
+
+	/**
+	 * Перенос принятого файла в inbound как журнала. Вызывается под
+	 * блокировкой тоссера, иначе журнал может разобрать и удалить
+	 * {@link #tossInboundDirectory()}
+	 * 
+	 * @param name
+	 *            имя файла у линка
+	 * @param file
+	 * @param extension
+	 *            pkt или bun
+	 * @return журнал или null, если перенести не удалось
+	 */
+	public static File moveToJournal(String name, File file, String extension) {
+		File journal;
+		synchronized (FtnTosser.class) {
+			journal = createInboundFile(true, extension);
+			if (!file.renameTo(journal)) {
+				logger.l4("Unable to move " + file + " to inbound");
+				return null;
+			}
+		}
+		logger.l4(name + " was moved as " + journal.getName());
+		return journal;
+	}
+
+	/**
+	 * Разбор пакета или бандла, перенесенного в inbound из
+	 * {@link #tossReceived(Message, File)}
+	 * 
+	 * @param journal
+	 */
+	public void tossJournal(File journal) {
+		if (!journal.exists()) {
+			// уже разобран из inbound
+			logger.l4("Journal " + journal.getName() + " is already tossed");
+			return;
+		}
+		running = true;
+		if (journal.getName().endsWith(".pkt")) {
+			tossPackets(Collections.singletonList(journal));
+		} else {
+			tossBundle(journal);
+		}
+	}
+
+	/**
+	 * Файл в inbound, который разбирает {@link #tossInboundDirectory()}
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public static boolean isTossable(String name) {
+		String loname = name.toLowerCase();
+		return PKT.matcher(loname).matches()
+				|| INBOUND_PKT.matcher(loname).matches()
+				|| INBOUND_BUNDLE.matcher(loname).matches()
+				|| TIC.matcher(loname).matches()
+				|| LO.matcher(loname).matches();
+	}
+
 	/**
 	 * Разбор файлов в папке inbound
 	 */
@@ -228,68 +402,25 @@ public class FtnTosser {
 		running = true;
 		logger.l5("Start tossInboundDirectory()");
 		Set<Link> poll = new HashSet<>();
+		List<File> packets = new ArrayList<>();
+		List<File> bundles = new ArrayList<>();
 		File inbound = new File(getInbound());
 		final File[] listFiles = inbound.listFiles();
 		if (listFiles != null) {
 			for (File file : listFiles) {
 				String loname = file.getName().toLowerCase();
-				if (loname.matches("^[a-f0-9]{8}\\.pkt$")) {
-					try {
-						Message m = new Message(file);
-						logger.l4("Tossing file " + file.getAbsolutePath());
-						FtnMessage ftnm;
-						FtnPkt pkt = new FtnPkt();
-						pkt.unpack(m.getInputStream());
-						while ((ftnm = pkt.getNextMessage()) != null) {
-							if (ftnm.isNetmail()) {
-								tossNetmail(ftnm, true);
-							} else {
-								tossEchomail(ftnm, null, true);
-							}
-						}
+				if (PKT.matcher(loname).matches()
+						|| INBOUND_PKT.matcher(loname).matches()) {
+					packets.add(file);
+				} else if (loname.endsWith(".ckp")) {
+					File packet = new File(file.getAbsolutePath().substring(0,
+							file.getAbsolutePath().length() - 4));
+					if (!packet.exists()) {
 						file.delete();
-					} catch (Exception e) {
-						markAsBad(file, "Tossing failed");
-						logger.l2(
-								"Error while tossing: "
-										+ e.getLocalizedMessage(), e);
-					}
-				} else if (loname.matches("(s|u)inb\\d*.pkt")) {
-					try {
-						Message m = new Message(file);
-						logger.l4("Tossing file " + file.getAbsolutePath());
-						FtnPkt pkt = new FtnPkt();
-						pkt.unpack(m.getInputStream());
-						Link link = getLinkByFtnAddress(pkt.getFromAddr());
-						boolean secure = loname.charAt(0) == 's'
-								&& link != null;
-						if (secure) {
-							if (!getOptionBooleanDefTrue(link,
-									LinkOption.BOOLEAN_IGNORE_PKTPWD)) {
-								if (!link.getPaketPassword().equalsIgnoreCase(
-										pkt.getPassword())) {
-									logger.l2("Pkt password mismatch - package moved to inbound");
-									markAsBad(file, "Password mismatch");
-									continue;
-								}
-							}
-						}
-						FtnMessage ftnm;
-						while ((ftnm = pkt.getNextMessage()) != null) {
-							if (ftnm.isNetmail()) {
-								tossNetmail(ftnm, secure);
-							} else {
-								tossEchomail(ftnm, link, secure);
-							}
-						}
-						file.delete();
-					} catch (Exception e) {
-						markAsBad(file, "Tossing failed");
-						logger.l2(
-								"Error while tossing: "
-										+ e.getLocalizedMessage(), e);
 					}
-				} else if (loname.matches("^[a-z0-9]{8}\\.tic$")) {
+				} else if (INBOUND_BUNDLE.matcher(loname).matches()) {
+					bundles.add(file);
+				} else if (TIC.matcher(loname).matches()) {
 					if (!MainHandler.getCurrentInstance().getBooleanProperty(
 							FILEECHO_ENABLE, true)) {
 						continue;
@@ -335,25 +466,24 @@ public class FtnTosser {
 							mail.setPath(tic.getPath());
 							mail.setSeenby(write4D(tic.getSeenby()));
 							mail.setCreated(new Date());
+							FtnTools.updateChecksum(mail,
+									new File(mail.getFilepath()));
 							ORMManager.get(Filemail.class).save(mail);
 							if (mail.getId() != null) {
-								for (FileSubscription sub : getSubscription(area)) {
-									if (source != null) {
-										if (sub.getLink().getId()
-												.equals(source.getId())) {
-											continue;
-										}
+								Subscribers subs = SubscriptionCache
+										.getSelf().getSubscribers(area);
+								for (int i = 0; i < subs.size(); i++) {
+									if (subs.getId(i) == source.getId()) {
+										continue;
 									}
-									if (!getOptionBooleanDefFalse(
-											sub.getLink(),
-											LinkOption.BOOLEAN_PAUSE)) {
+									if (!subs.isPaused(i)) {
 										ORMManager.get(FilemailAwaiting.class)
-												.save(new FilemailAwaiting(sub
-														.getLink(), mail));
+												.save(new FilemailAwaiting(subs
+														.getLink(i), mail));
 										if (getOptionBooleanDefFalse(
-												sub.getLink(),
+												subs.getLink(i),
 												LinkOption.BOOLEAN_CRASH_FILEMAIL)) {
-											poll.add(sub.getLink());
+											poll.add(subs.getLink(i));
 										}
 									}
 								}
@@ -371,7 +501,7 @@ public class FtnTosser {
 								"Error while processing tic " + file.getName(),
 								e);
 					}
-				} else if (loname.matches("^[0-9a-f]{8}\\..?lo$")) {
+				} else if (LO.matcher(loname).matches()) {
 					FtnAddress address = getPrimaryFtnAddress().clone();
 					address.setPoint(0);
 					try {
@@ -414,13 +544,217 @@ public class FtnTosser {
 				}
 			}
 		}
+		tossPackets(packets);
+		for (File bundle : bundles) {
+			tossBundle(bundle);
+		}
 		for (Link l : poll) {
 			PollQueue.getSelf().add(
 					ORMManager.get(Link.class).getById(l.getId()));
 		}
 	}
 
-	private void markAsBad(File file, String message) {
+	/**
+	 * Разбор пакетов - последовательно или через {@link TossingPipeline}
+	 * 
+	 * @param files
+	 */
+	private void tossPackets(List<File> files) {
+		CountDownLatch latch = new CountDownLatch(files.size());
+		for (File file : files) {
+			TossedPacket packet = new TossedPacket(file, INBOUND_PKT.matcher(
+					file.getName().toLowerCase()).matches(), latch);
+			if (pipeline != null) {
+				pipeline.decode(packet);
+			} else {
+				decodePacket(packet, null);
+				writer.flush();
+			}
+		}
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			logger.l2("Interrupted while waiting for tossing", e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Чтение пакета: заголовок, проверка пароля, сообщения. Если pipeline не
+	 * задан - сообщения разбираются тут же
+	 * 
+	 * @param packet
+	 * @param pipeline
+	 */
+	void decodePacket(TossedPacket packet, TossingPipeline pipeline) {
+		File file = packet.getFile();
+		InputStream is = null;
+		try {
+			logger.l4("Tossing file " + file.getAbsolutePath());
+			is = new BufferedInputStream(new FileInputStream(file));
+			decodeStream(packet, is, pipeline);
+		} catch (Exception e) {
+			packet.fail("Tossing failed");
+			logger.l2("Error while tossing: " + e.getLocalizedMessage(), e);
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException ignore) {
+				}
+			}
+			packet.done();
+		}
+	}
+
+	/**
+	 * Разбор бандла из журнала: пакеты читаются прямо из zip, журнал
+	 * удаляется ( или помечается как bad ) после обработки всех сообщений
+	 * 
+	 * @param journal
+	 */
+	private void tossBundle(File journal) {
+		CountDownLatch latch = new CountDownLatch(1);
+		TossedPacket bundle = new TossedPacket(journal, true, latch);
+		ZipInputStream zis = null;
+		try {
+			logger.l4("Tossing bundle " + journal.getAbsolutePath());
+			zis = new ZipInputStream(new BufferedInputStream(
+					new FileInputStream(journal)));
+			ZipEntry ze;
+			int part = 0;
+			while (!bundle.isFailed() && (ze = zis.getNextEntry()) != null) {
+				String name = ze.getName().toLowerCase();
+				name = name.substring(Math.max(name.lastIndexOf('/'),
+						name.lastIndexOf('\\')) + 1);
+				if (!PKT.matcher(name).matches()) {
+					logger.l3(name + " was deleted as unknown");
+					continue;
+				}
+				logger.l4("Tossing " + name + " from " + journal.getName());
+				TossedPacket packet = new TossedPacket(bundle, ++part);
+				bundle.add();
+				try {
+					decodeStream(packet, new BufferedInputStream(zis),
+							pipeline);
+				} catch (Exception e) {
+					packet.fail("Tossing failed");
+					logger.l2("Error while tossing: " + e.getLocalizedMessage(),
+							e);
+				} finally {
+					packet.done();
+				}
+				if (pipeline == null) {
+					writer.flush();
+				}
+			}
+		} catch (IOException e) {
+			bundle.fail("Unpacking failed");
+			logger.l2("Error while unpacking: " + e.getLocalizedMessage(), e);
+		} finally {
+			if (zis != null) {
+				try {
+					zis.close();
+				} catch (IOException ignore) {
+				}
+			}
+			bundle.done();
+		}
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			logger.l2("Interrupted while waiting for tossing", e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Чтение пакета: заголовок, проверка пароля, сообщения. Если pipeline не
+	 * задан - сообщения разбираются тут же. Поток не закрывается
+	 * 
+	 * @param packet
+	 * @param is
+	 * @param pipeline
+	 * @throws IOException
+	 */
+	private void decodeStream(TossedPacket packet, InputStream is,
+			TossingPipeline pipeline) throws IOException {
+		FtnPkt pkt = new FtnPkt();
+		pkt.unpack(is, false);
+		if (packet.isInbound()) {
+			Link link = getLinkByFtnAddress(pkt.getFromAddr());
+			boolean secure = packet.getFile().getName().toLowerCase()
+					.charAt(0) == 's'
+					&& link != null;
+			if (secure) {
+				if (!getOptionBooleanDefTrue(link,
+						LinkOption.BOOLEAN_IGNORE_PKTPWD)) {
+					if (!link.getPaketPassword().equalsIgnoreCase(
+							pkt.getPassword())) {
+						logger.l2("Pkt password mismatch - package moved to inbound");
+						packet.fail("Password mismatch");
+						return;
+					}
+				}
+			}
+			packet.setSource(link, secure);
+		}
+		packet.resume();
+		FtnMessage ftnm;
+		while (!packet.isFailed() && (ftnm = pkt.getNextMessage()) != null) {
+			int index = packet.add();
+			if (packet.isWritten(index)) {
+				// записано в прошлый раз
+				packet.done(index);
+			} else if (pipeline != null) {
+				pipeline.put(ftnm, packet, index);
+			} else {
+				tossMessage(ftnm, packet, index, writer);
+			}
+		}
+	}
+
+	/**
+	 * Разбор одного сообщения из пакета
+	 * 
+	 * @param message
+	 * @param packet
+	 * @param index
+	 *            номер сообщения в пакете
+	 * @param writer
+	 *            запись эхомейла, у каждой очереди свой
+	 */
+	void tossMessage(FtnMessage message, TossedPacket packet, int index,
+			EchomailWriter writer) {
+		boolean deferred = false;
+		boolean tossed = false;
+		try {
+			if (!packet.isFailed()) {
+				if (message.isNetmail()) {
+					tossNetmail(message, packet.isSecure());
+				} else {
+					deferred = tossEchomail(message, packet, index, writer);
+				}
+				tossed = true;
+			}
+		} catch (RuntimeException e) {
+			packet.fail("Tossing failed");
+			logger.l2("Error while tossing: " + e.getLocalizedMessage(), e);
+		} finally {
+			if (!deferred) {
+				if (tossed) {
+					packet.done(index);
+					if (message.isNetmail()) {
+						packet.checkpoint();
+					}
+				} else {
+					packet.done();
+				}
+			}
+		}
+	}
+
+	static void markAsBad(File file, String message) {
 		logger.l2("File " + file.getName() + " is bad: " + message);
 		file.renameTo(new File(file.getAbsolutePath() + ".bad"));
 	}
@@ -444,8 +778,13 @@ public class FtnTosser {
 			}
 		}
 
+		boolean building = OutboundBuilder.getSelf().isRunning();
 		for (Link l : pollLinks) {
-			if (getOptionBooleanDefFalse(l, LinkOption.BOOLEAN_CRASH_ECHOMAIL)) {
+			if (building) {
+				// опросит после сборки
+				OutboundBuilder.getSelf().schedule(l);
+			} else if (getOptionBooleanDefFalse(l,
+					LinkOption.BOOLEAN_CRASH_ECHOMAIL)) {
 				PollQueue.getSelf().add(
 						ORMManager.get(Link.class).getById(l.getId()));
 			}
@@ -473,11 +812,9 @@ public class FtnTosser {
 		try {
 			File f = createOutboundFile(link);
 			FileOutputStream fos = new FileOutputStream(f);
-			OutputStream os = (pack) ? new ZipOutputStream(fos) : fos;
-			if (pack) {
-				((ZipOutputStream) os).putNextEntry(new ZipEntry(generate8d()
-						+ ".pkt"));
-			}
+			OutputStream os = (pack) ? new ZipBundleOutputStream(fos, fos,
+					generate8d() + ".pkt", ZipBundleOutputStream.getLevel(link))
+					: fos;
 			header.write(os);
 			do {
 				mail = new ArrayList<>();
@@ -523,6 +860,9 @@ public class FtnTosser {
 			fos.close();
 			if (num == 0) {
 				f.delete();
+			} else if (link.getId() != null) {
+				// неотправленное останется в спуле
+				SpoolManager.getSelf().addNetmail(link, f, pack);
 			} else {
 				Message m = new Message(f);
 				if (pack) {
@@ -538,88 +878,191 @@ public class FtnTosser {
 		return messages;
 	}
 
-	private List<Message> packEchomail(Link link, FtnAddress address) {
-		LinkedList<Message> messages = new LinkedList<>();
+	/**
+	 * Упаковать ожидающий линка эхомейл в спул. Размер бандла и пакета в
+	 * килобайтах - опции линка bundlesize/packetsize, по умолчанию
+	 * tosser.bundle_size/tosser.packet_size
+	 * 
+	 * @param link
+	 * @param address
+	 * @param maxBundles
+	 *            сколько бандлов собрать ( 0 - все )
+	 * @return сколько бандлов попало в спул
+	 */
+	private int packEchomail(Link link, FtnAddress address, int maxBundles) {
 		boolean pack = getOptionBooleanDefTrue(link,
 				LinkOption.BOOLEAN_PACK_ECHOMAIL);
-		Ftn2D link2d = new Ftn2D(address.getNet(), address.getNode());
-		int num = 0;
+		long maxSize = getOptionLong(link, LinkOption.LONG_BUNDLE_SIZE);
+		if (maxSize <= 0) {
+			maxSize = MainHandler.getCurrentInstance().getIntegerProperty(
+					TOSSER_BUNDLE_SIZE, 1024);
+		}
+		long maxPacket = getOptionLong(link, LinkOption.LONG_PACKET_SIZE);
+		if (maxPacket <= 0) {
+			maxPacket = MainHandler.getCurrentInstance().getIntegerProperty(
+					TOSSER_PACKET_SIZE, 0);
+		}
+		maxSize *= 1024L;
+		maxPacket *= 1024L;
+		int limit = MainHandler.getCurrentInstance().getIntegerProperty(
+				MAIL_LIMIT, 100);
+		int bundles = 0;
+		SpoolManager.Bundle bundle = null;
 		try {
 			List<EchomailAwaiting> email = null;
-			File f = createOutboundFile(link);
-			FileOutputStream fos = new FileOutputStream(f);
-			OutputStream os = (pack) ? new ZipOutputStream(fos) : fos;
-			FtnPkt header = new FtnPkt(selectOurAka(link), address,
-					link.getPaketPassword(), new Date());
-			if (pack) {
-				((ZipOutputStream) os).putNextEntry(new ZipEntry(generate8d()
-						+ ".pkt"));
-			}
-			header.write(os);
+			// очередь: старые записи, перескан и пауза
 			do {
 				email = getEchoMail(link);
-				if (!email.isEmpty()) {
-					for (EchomailAwaiting e : email) {
-						Echomail mail = e.getMail();
-						if (mail == null) {
-							deleteEAmail(e);
+				for (EchomailAwaiting e : email) {
+					if (e.getMail() != null
+							&& link.getId() != null
+							&& link.getId().equals(
+									e.getMail().getSourceLinkId())) {
+						// пришло от этого линка
+						continue;
+					}
+					if (bundle == null) {
+						bundle = new SpoolManager.Bundle(link, address, pack,
+								maxSize, maxPacket);
+					}
+					if (packEchomail(bundle.getOutputStream(), link, address,
+							e.getMail())) {
+						bundle.added();
+					}
+				}
+				for (EchomailAwaiting e : email) {
+					deleteEAmail(e);
+				}
+				if (bundle != null && bundle.isFull()) {
+					bundles += (bundle.finish()) ? 1 : 0;
+					bundle = null;
+					if (maxBundles > 0 && bundles >= maxBundles) {
+						return bundles;
+					}
+				}
+			} while (!email.isEmpty());
+			// курсоры подписок
+			if (link.getId() != null) {
+				long safe = EchomailCursors.getSafeId();
+				Map<Long, Long> cursors = new HashMap<>();
+				long from = Long.MAX_VALUE;
+				for (Subscription sub : ORMManager.get(Subscription.class)
+						.getAnd("link_id", "=", link)) {
+					cursors.put(sub.getArea().getId(), sub.getLastMailId());
+					from = Math.min(from, sub.getLastMailId());
+				}
+				if (EchomailCursors.isPaused(link)) {
+					// пришедшее во время паузы линку не передается
+					from = safe;
+				}
+				List<Echomail> mails;
+				do {
+					mails = (from < safe) ? ORMManager.get(Echomail.class)
+							.getOrderLimitAnd(limit, "id", true, "echoarea_id",
+									"in", cursors.keySet(), "id", ">", from,
+									"id", "<=", safe)
+							: new ArrayList<Echomail>();
+					for (Echomail mail : mails) {
+						from = mail.getId();
+						Long cursor = cursors.get(mail.getArea().getId());
+						if (cursor != null && mail.getId() <= cursor) {
 							continue;
 						}
-						Echoarea area = mail.getArea();
-						if (area == null) {
-							deleteEAmail(e);
+						if (link.getId().equals(mail.getSourceLinkId())) {
+							// пришло от этого линка
 							continue;
 						}
-						List<Ftn2D> path = read2D(mail.getPath());
-						Set<Ftn2D> seenby = new HashSet<>(
-								read2D(mail.getSeenBy()));
-						if (seenby.contains(link2d) && address.getPoint() == 0) {
-							logger.l5(link2d + " is in seenby for " + address);
-							deleteEAmail(e);
+						if (address.getPoint() != 0
+								&& address.toString().equals(mail.getFromFTN())) {
+							// от самого поинта
 							continue;
 						}
-						seenby.add(link2d);
-						seenby.addAll(createSeenBy(area));
-						for (FtnAddress addr : MainHandler.getCurrentInstance()
-								.getInfo().getAddressList()) {
-							Ftn2D me = new Ftn2D(addr.getNet(), addr.getNode());
-							seenby.add(me);
-							if (!path.contains(me)) {
-								path.add(me);
+						if (bundle == null) {
+							bundle = new SpoolManager.Bundle(link, address,
+									pack, maxSize, maxPacket);
+						}
+						if (packEchomail(bundle.getOutputStream(), link,
+								address, mail)) {
+							bundle.added();
+						}
+						if (bundle.isFull()) {
+							bundles += (bundle.finish()) ? 1 : 0;
+							bundle = null;
+							EchomailCursors.advance(link, from);
+							if (maxBundles > 0 && bundles >= maxBundles) {
+								return bundles;
 							}
 						}
-
-						FtnMessage msg = createEchomail(address, mail, area,
-								seenby, path);
-						logger.l4("Echomail #" + mail.getId() + " ("
-								+ area.getName() + ") packed for "
-								+ link.getLinkAddress());
-						msg.write(os);
-						num++;
-					}
-
-					for (EchomailAwaiting e : email) {
-						deleteEAmail(e);
 					}
+				} while (mails.size() == limit);
+				if (bundle != null) {
+					bundles += (bundle.finish()) ? 1 : 0;
+					bundle = null;
 				}
-			} while (!email.isEmpty());
-			header.finalz(os);
-			fos.close();
-			if (num == 0) {
-				f.delete();
-			} else {
-				Message m = new Message(f);
-				if (pack) {
-					m.setMessageName(generateEchoBundle());
-				} else {
-					m.setMessageName(generate8d() + ".pkt");
+				if (safe > 0) {
+					EchomailCursors.advance(link, safe);
 				}
-				messages.add(m);
+			} else if (bundle != null) {
+				bundles += (bundle.finish()) ? 1 : 0;
+				bundle = null;
 			}
 		} catch (IOException e) {
 			logger.l2("Error while packing echomails ", e);
+			if (bundle != null) {
+				bundle.abort();
+			}
 		}
-		return messages;
+		return bundles;
+	}
+
+	/**
+	 * Собрать весь ожидающий эхомейл линка в спул ( фоновая сборка ). Линк
+	 * блокируется на один бандл, так что сессия линка не ждет всю сборку
+	 * 
+	 * @param link
+	 * @return сколько бандлов добавлено
+	 */
+	public int spoolEchomail(Link link) {
+		FtnAddress address = FtnAddress.valueOf(link.getLinkAddress());
+		String key = address.toString().intern();
+		int total = 0;
+		int bundles;
+		do {
+			synchronized (key) {
+				bundles = packEchomail(link, address, 1);
+			}
+			total += bundles;
+		} while (bundles > 0);
+		return total;
+	}
+
+	/**
+	 * Одно письмо в пакет для линка
+	 * 
+	 * @return false - письмо линку не нужно
+	 * @throws IOException
+	 */
+	private boolean packEchomail(OutputStream os, Link link,
+			FtnAddress address, Echomail mail)
+			throws IOException {
+		if (mail == null) {
+			return false;
+		}
+		Echoarea area = mail.getArea();
+		if (area == null) {
+			return false;
+		}
+		Encoded encoded = EchomailEncodeCache.getSelf().get(mail);
+		if (encoded.isSeenBy(address.getNet(), address.getNode())
+				&& address.getPoint() == 0) {
+			logger.l5(address + " is in seenby");
+			return false;
+		}
+		encoded.write(os, address, SubscriptionCache.getSelf()
+				.getSubscribers(area));
+		logger.l4("Echomail #" + mail.getId() + " (" + area.getName()
+				+ ") packed for " + link.getLinkAddress());
+		return true;
 	}
 
 	private void deleteEAmail(EchomailAwaiting e) {
@@ -663,32 +1106,16 @@ public class FtnTosser {
 						continue;
 					}
 
-					Set<FtnAddress> seenby = new HashSet<>(
-							read4D(mail.getSeenby()));
-					if (seenby.contains(address)) {
+					FilemailSeenByCache.SeenBy seenby = FilemailSeenByCache
+							.getSelf().get(mail);
+					if (seenby.isSeenBy(address)) {
 						deleteFAMail(f);
 						logger.l3("This file have a seen-by for link");
 						continue;
 					}
-					for (FtnAddress our : MainHandler.getCurrentInstance()
-							.getInfo().getAddressList()) {
-						seenby.add(our);
-					}
-					for (FileSubscription sub : getSubscription(area)) {
-						try {
-							Link l = ORMManager.get(Link.class).getById(
-									sub.getLink().getId());
-							seenby.add(new FtnAddress(l.getLinkAddress()));
-						} catch (NullPointerException e) {
-							logger.l4("bad link for FileSubscription " + sub
-									+ " - ignored", e);
-						}
-					}
-					List<FtnAddress> sb = new ArrayList<>(seenby);
-					Collections.sort(sb, new Ftn4DComparator());
 					FtnTIC tic = createTic(link, mail, attach);
 					tic.setTo(address);
-					tic.setSeenby(sb);
+					tic.setSeenby(seenby.getList());
 					tic.setPath(mail.getPath() + "Path "
 							+ getPrimaryFtnAddress() + " "
 							+ System.currentTimeMillis() / 1000 + " "
@@ -733,47 +1160,33 @@ public class FtnTosser {
 	}
 
 	public List<Message> getMessages2(FtnAddress address) {
+		return getMessages2(address, 0);
+	}
+
+	/**
+	 * Почта для сессии
+	 * 
+	 * @param address
+	 * @param maxBytes
+	 *            сколько байт из спула отдать ( 0 - все )
+	 * @return
+	 */
+	public List<Message> getMessages2(FtnAddress address, long maxBytes) {
 		LinkedList<Message> messages = new LinkedList<>();
 		String key = address.toString().intern();
 		synchronized (key) {
-			messages.addAll(packNetmail(address));
 			Link link = getLinkByFtnAddress(address);
+			boolean spooled = link != null
+					&& !SpoolManager.getSelf().isEmpty(link);
+			messages.addAll(packNetmail(address));
 			if (link != null) {
-				messages.addAll(packEchomail(link, address));
-				messages.addAll(packFilemail(link, address));
-				if (messages.isEmpty()) {
-					File inbound = new File(getInbound());
-					final File[] listFiles = inbound.listFiles();
-					if (listFiles != null) {
-						for (File file : listFiles) {
-							String loname = file.getName().toLowerCase();
-							if (loname.matches("^out_" + link.getId()
-									+ "\\..*$")) {
-								boolean packed = true;
-								try {
-									new ZipFile(file).close();
-								} catch (Exception e) {
-									packed = false;
-								}
-								try {
-									Message m = new Message(file);
-									if (packed) {
-										m.setMessageName(generateEchoBundle());
-									} else {
-										m.setMessageName(generate8d() + ".pkt");
-									}
-									messages.add(m);
-									break;
-								} catch (Exception e) {
-									// ignore
-								}
-
-							}
-						}
-					}
+				if (!spooled) {
+					// фоновая сборка не успела - соберем бандл сами
+					packEchomail(link, address, 1);
 				}
+				messages.addAll(SpoolManager.getSelf().list(link, maxBytes));
+				messages.addAll(packFilemail(link, address));
 			}
-
 		}
 		return messages;
 	}
@@ -791,26 +1204,12 @@ public class FtnTosser {
 	protected FtnTIC createTic(Link link, Filemail mail, File attach) {
 		FtnTIC tic = new FtnTIC();
 		try {
-			CRC32 crc32 = new CRC32();
-			FileInputStream fis = new FileInputStream(attach);
-			int len;
-			do {
-				byte buf[];
-				len = fis.available();
-				if (len > 1024) {
-					buf = new byte[1024];
-				} else {
-					buf = new byte[len];
-				}
-				fis.read(buf);
-				crc32.update(buf);
-			} while (len > 0);
-			tic.setCrc32(crc32.getValue());
-			fis.close();
+			// один раз на файл, а не на каждый линк
+			tic.setCrc32(FtnTools.getCrc32(mail, attach));
 			tic.setArea(mail.getFilearea().getName().toUpperCase());
 			tic.setAreaDesc(mail.getFilearea().getDescription());
 			tic.setFile(mail.getFilename());
-			tic.setSize(attach.length());
+			tic.setSize(mail.getFilesize());
 			tic.setDesc(mail.getFiledesc());
 			tic.setPassword(link.getPaketPassword());
 			tic.setFrom(FtnTools.selectOurAka(link));
@@ -823,42 +1222,6 @@ public class FtnTosser {
 		return null;
 	}
 
-	protected Set<Ftn2D> createSeenBy(Echoarea area) {
-		List<Subscription> ssubs = getSubscription(area);
-		Set<Ftn2D> seenby = new HashSet<>();
-		for (Subscription ssub : ssubs) {
-			try {
-				Link _sslink = ORMManager.get(Link.class).getById(
-						ssub.getLink().getId());
-				FtnAddress addr = new FtnAddress(_sslink.getLinkAddress());
-				Ftn2D d2 = new Ftn2D(addr.getNet(), addr.getNode());
-				seenby.add(d2);
-			} catch (NullPointerException e) {
-				logger.l1("Bad link for subscriprion " + ssub + " : ignored", e);
-			}
-
-		}
-		return seenby;
-	}
-
-	protected FtnMessage createEchomail(FtnAddress link_address, Echomail mail,
-			Echoarea area, Set<Ftn2D> seenby, List<Ftn2D> path) {
-		FtnMessage message = new FtnMessage();
-		message.setNetmail(false);
-		message.setArea(area.getName().toUpperCase());
-		message.setFromName(mail.getFromName());
-		message.setToName(mail.getToName());
-		message.setFromAddr(getPrimaryFtnAddress());
-		message.setToAddr(link_address);
-		message.setDate(mail.getDate());
-		message.setSubject(mail.getSubject());
-		message.setText(mail.getText());
-		message.setSeenby(new ArrayList<>(seenby));
-		message.setPath(path);
-		message.setMsgid(mail.getMsgid());
-		return message;
-	}
-
 	private List<Netmail> getNetmail(Link link) {
 		if (link.getId() != null) {
 			return ORMManager.get(Netmail.class).getLimitAnd(
@@ -880,11 +1243,6 @@ public class FtnTosser {
 		}
 	}
 
-	private List<Subscription> getSubscription(Echoarea area) {
-		return ORMManager.get(Subscription.class).getAnd("echoarea_id", "=",
-				area);
-	}
-
 	private List<FilemailAwaiting> getFileMail(Link link) {
 		if (link.getId() != null) {
 			return ORMManager.get(FilemailAwaiting.class).getLimitAnd(
@@ -895,11 +1253,6 @@ public class FtnTosser {
 		}
 	}
 
-	private List<FileSubscription> getSubscription(Filearea area) {
-		return ORMManager.get(FileSubscription.class).getAnd("filearea_id",
-				"=", area);
-	}
-
 	public boolean isRunning() {
 		return running;
 	}
@@ -0,0 +1,354 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.tosser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jnode.dto.Link;
+import jnode.logger.Logger;
+import jnode.main.MainHandler;
+
+/**
+ * Пакет в процессе разбора. Файл удаляется ( или помечается как bad ) только
+ * тогда, когда все его сообщения обработаны. Пакет из бандла сообщает о
+ * завершении бандлу, файлом владеет бандл.
+ * 
+ * Для файла ведется контрольная точка - файл .ckp рядом с ним: какие
+ * сообщения уже записаны в базу ( для бандла - по каждому пакету внутри ) и
+ * сколько раз разбор откладывался. Следующий разбор пропускает записанные
+ * сообщения; после tosser.retry_limit отложенных разборов файл помечается
+ * как bad.
+ * 
+ * @author agent
+ * 
+ */
+class TossedPacket {
+	private static final Logger logger = Logger.getLogger(TossedPacket.class);
+	private static final String CHECKPOINT = ".ckp";
+	private static final int DEFAULT_RETRY_LIMIT = 10;
+	private final File file;
+	private final boolean inbound;
+	private final CountDownLatch latch;
+	private final TossedPacket parent;
+	/** пакет, владеющий файлом ( для пакета не из бандла - он сам ) */
+	private final TossedPacket root;
+	/** 1 - пока пакет читается, плюс по одному на каждое сообщение в работе */
+	private final AtomicInteger pending = new AtomicInteger(1);
+	/** записанные сообщения; под блокировкой root.parts */
+	private final BitSet written;
+	/** только у root: записанные сообщения по номеру пакета в файле */
+	private final Map<Integer, BitSet> parts;
+	private volatile String failure;
+	private volatile boolean retry;
+	private Link link;
+	private boolean secure = true;
+	/** номер следующего сообщения - только в потоке чтения */
+	private int next;
+	/** только у root: сколько раз разбор откладывался */
+	private int attempts;
+	private String saved;
+
+	/**
+	 * @param file
+	 *            файл пакета ( или бандла )
+	 * @param inbound
+	 *            пакет принят по binkp ( [su]inb*.pkt ) - проверяем пароль
+	 * @param latch
+	 *            уменьшается после завершения пакета, может быть null
+	 */
+	TossedPacket(File file, boolean inbound, CountDownLatch latch) {
+		this.file = file;
+		this.inbound = inbound;
+		this.latch = latch;
+		this.parent = null;
+		this.root = this;
+		this.parts = new TreeMap<>();
+		load();
+		this.written = part(0);
+	}
+
+	/**
+	 * Пакет внутри бандла; parent.add() вызывает создающий
+	 * 
+	 * @param parent
+	 *            бандл
+	 * @param part
+	 *            номер пакета в бандле, с 1
+	 */
+	TossedPacket(TossedPacket parent, int part) {
+		this.file = parent.file;
+		this.inbound = true;
+		this.latch = null;
+		this.parent = parent;
+		this.root = parent.root;
+		this.parts = null;
+		this.written = root.part(part);
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	boolean isInbound() {
+		return inbound;
+	}
+
+	Link getLink() {
+		return link;
+	}
+
+	boolean isSecure() {
+		return secure;
+	}
+
+	void setSource(Link link, boolean secure) {
+		this.link = link;
+		this.secure = secure;
+	}
+
+	boolean isFailed() {
+		return failure != null;
+	}
+
+	void fail(String reason) {
+		if (failure == null) {
+			failure = reason;
+		}
+	}
+
+	/**
+	 * Ошибка соединения с базой: файл остается на месте и дочитывается с
+	 * контрольной точки при следующем разборе
+	 * 
+	 * @param reason
+	 */
+	void retry(String reason) {
+		retry = true;
+		fail(reason);
+	}
+
+	/**
+	 * Сколько сообщений пакета уже записано в прошлый раз
+	 * 
+	 * @return
+	 */
+	int resume() {
+		int count;
+		synchronized (root.parts) {
+			count = written.cardinality();
+		}
+		if (count > 0) {
+			logger.l3(String.format("%s: %d messages were written before",
+					file.getName(), count));
+		}
+		return count;
+	}
+
+	/**
+	 * Сообщение записано в прошлый раз - его надо пропустить
+	 * 
+	 * @param index
+	 * @return
+	 */
+	boolean isWritten(int index) {
+		synchronized (root.parts) {
+			return written.get(index);
+		}
+	}
+
+	/**
+	 * Сообщение из пакета передано в работу
+	 * 
+	 * @return номер сообщения для {@link #done(int)}
+	 */
+	int add() {
+		pending.incrementAndGet();
+		return next++;
+	}
+
+	/**
+	 * Сообщение записано ( или отброшено как ненужное ) - повторно его
+	 * разбирать не надо
+	 * 
+	 * @param index
+	 */
+	void done(int index) {
+		synchronized (root.parts) {
+			written.set(index);
+		}
+		done();
+	}
+
+	/**
+	 * Сохранить контрольную точку, если что-то изменилось
+	 */
+	void checkpoint() {
+		if (root != this) {
+			root.checkpoint();
+			return;
+		}
+		synchronized (parts) {
+			if (!file.exists()) {
+				return;
+			}
+			StringBuilder sb = new StringBuilder();
+			sb.append(file.length()).append(' ').append(file.lastModified())
+					.append(' ').append(attempts).append('\n');
+			boolean empty = true;
+			for (Map.Entry<Integer, BitSet> part : parts.entrySet()) {
+				BitSet bits = part.getValue();
+				if (bits.isEmpty()) {
+					continue;
+				}
+				empty = false;
+				sb.append(part.getKey());
+				for (int i = bits.nextSetBit(0); i >= 0; i = bits
+						.nextSetBit(i)) {
+					int end = bits.nextClearBit(i);
+					sb.append(' ').append(i).append('-').append(end - 1);
+					i = end;
+				}
+				sb.append('\n');
+			}
+			String text = sb.toString();
+			if (text.equals(saved)
+					|| (saved == null && empty && attempts == 0)) {
+				return;
+			}
+			try (Writer w = new FileWriter(getCheckpoint())) {
+				w.write(text);
+				saved = text;
+			} catch (IOException e) {
+				logger.l2("Unable to write checkpoint for " + file.getName(),
+						e);
+			}
+		}
+	}
+
+	/**
+	 * Сообщение обработано ( или закончено чтение пакета )
+	 */
+	void done() {
+		if (pending.decrementAndGet() == 0) {
+			if (parent != null) {
+				if (retry) {
+					parent.retry(failure);
+				} else if (failure != null) {
+					parent.fail(failure);
+				}
+				parent.done();
+			} else {
+				synchronized (parts) {
+					if (failure == null) {
+						file.delete();
+						getCheckpoint().delete();
+					} else if (retry && ++attempts < getRetryLimit()) {
+						checkpoint();
+						logger.l2(String.format(
+								"File %s will be resumed ( attempt %d ): %s",
+								file.getName(), attempts, failure));
+					} else {
+						FtnTosser.markAsBad(file, (retry) ? failure
+								+ " ( " + attempts + " attempts )" : failure);
+						getCheckpoint().delete();
+					}
+				}
+			}
+			if (latch != null) {
+				latch.countDown();
+			}
+		}
+	}
+
+	private BitSet part(int number) {
+		synchronized (parts) {
+			BitSet bits = parts.get(number);
+			if (bits == null) {
+				bits = new BitSet();
+				parts.put(number, bits);
+			}
+			return bits;
+		}
+	}
+
+	/**
+	 * Прочитать контрольную точку, если файл с тех пор не менялся
+	 */
+	private void load() {
+		File ckp = getCheckpoint();
+		if (!ckp.exists()) {
+			return;
+		}
+		try (BufferedReader br = new BufferedReader(new FileReader(ckp))) {
+			String[] header = br.readLine().split(" ");
+			if (Long.parseLong(header[0]) != file.length()
+					|| Long.parseLong(header[1]) != file.lastModified()) {
+				logger.l3(file.getName() + " was changed, checkpoint ignored");
+				return;
+			}
+			Map<Integer, BitSet> restored = new TreeMap<>();
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] ranges = line.split(" ");
+				BitSet bits = new BitSet();
+				for (int i = 1; i < ranges.length; i++) {
+					int dash = ranges[i].indexOf('-');
+					bits.set(Integer.parseInt(ranges[i].substring(0, dash)),
+							Integer.parseInt(ranges[i].substring(dash + 1)) + 1);
+				}
+				restored.put(Integer.valueOf(ranges[0]), bits);
+			}
+			attempts = Integer.parseInt(header[2]);
+			parts.putAll(restored);
+		} catch (IOException | RuntimeException e) {
+			logger.l2("Bad checkpoint " + ckp.getName());
+		}
+	}
+
+	private static int getRetryLimit() {
+		return MainHandler.getCurrentInstance().getIntegerProperty(
+				FtnTosser.TOSSER_RETRY_LIMIT, DEFAULT_RETRY_LIMIT);
+	}
+
+	private File getCheckpoint() {
+		return getCheckpoint(file);
+	}
+
+	/**
+	 * Файл контрольной точки пакета
+	 * 
+	 * @param file
+	 * @return
+	 */
+	static File getCheckpoint(File file) {
+		return new File(file.getAbsolutePath() + CHECKPOINT);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.tosser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jnode.ftn.types.FtnMessage;
+import jnode.logger.Logger;
+
+/**
+ * Параллельный тоссинг: пакеты читаются пулом потоков, сообщения
+ * раскладываются по очередям. Все сообщения одной эхи попадают в одну очередь
+ * и пишутся строго по порядку, разные эхи пишутся параллельно. Нетмейл идет
+ * отдельной очередью. У каждой очереди эхомейла свой {@link EchomailWriter},
+ * накопленное коммитится, когда очередь опустела.
+ * 
+ * @author agent
+ * 
+ */
+class TossingPipeline {
+	private static final Logger logger = Logger
+			.getLogger(TossingPipeline.class);
+	private final FtnTosser tosser;
+	private final ExecutorService decoders;
+	private final Lane netmailLane;
+	private final Lane[] echomailLanes;
+
+	TossingPipeline(FtnTosser tosser, int threads, int queueSize,
+			int batchSize) {
+		this.tosser = tosser;
+		this.decoders = Executors.newFixedThreadPool(threads,
+				new DaemonFactory("tosser-decoder-"));
+		this.netmailLane = new Lane("tosser-netmail", queueSize, null);
+		this.echomailLanes = new Lane[threads];
+		for (int i = 0; i < threads; i++) {
+			echomailLanes[i] = new Lane("tosser-echomail-" + i, queueSize,
+					new EchomailWriter(tosser, batchSize));
+		}
+		logger.l3("Tossing pipeline (" + threads + " lanes, queue "
+				+ queueSize + ") started");
+	}
+
+	/**
+	 * Отдать пакет на разбор в пул потоков
+	 * 
+	 * @param packet
+	 */
+	void decode(final TossedPacket packet) {
+		decoders.execute(new Runnable() {
+			@Override
+			public void run() {
+				tosser.decodePacket(packet, TossingPipeline.this);
+			}
+		});
+	}
+
+	/**
+	 * Передать сообщение в очередь; блокируется, если очередь заполнена
+	 * 
+	 * @param message
+	 * @param packet
+	 * @param index
+	 *            номер сообщения в пакете
+	 */
+	void put(FtnMessage message, TossedPacket packet, int index) {
+		Lane lane;
+		if (message.isNetmail()) {
+			lane = netmailLane;
+		} else {
+			int hash = message.getArea().toLowerCase().hashCode();
+			lane = echomailLanes[(hash & 0x7fffffff) % echomailLanes.length];
+		}
+		try {
+			lane.queue.put(new Entry(message, packet, index));
+		} catch (InterruptedException e) {
+			packet.fail("Tossing interrupted");
+			packet.done();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class Entry {
+		private final FtnMessage message;
+		private final TossedPacket packet;
+		private final int index;
+
+		private Entry(FtnMessage message, TossedPacket packet, int index) {
+			this.message = message;
+			this.packet = packet;
+			this.index = index;
+		}
+	}
+
+	private final class Lane extends Thread {
+		private final BlockingQueue<Entry> queue;
+		private final EchomailWriter writer;
+
+		private Lane(String name, int queueSize, EchomailWriter writer) {
+			super(name);
+			this.queue = new ArrayBlockingQueue<>(queueSize);
+			this.writer = writer;
+			setDaemon(true);
+			start();
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					Entry entry = queue.poll();
+					if (entry == null) {
+						if (writer != null) {
+							writer.flush();
+						}
+						entry = queue.take();
+					}
+					tosser.tossMessage(entry.message, entry.packet,
+							entry.index, writer);
+				} catch (InterruptedException e) {
+					logger.l2(getName() + " interrupted");
+					return;
+				} catch (RuntimeException e) {
+					logger.l1("Unexpected error in " + getName(), e);
+				}
+			}
+		}
+	}
+
+	private static final class DaemonFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger number = new AtomicInteger();
+
+		private DaemonFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + number.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.types;
+
+import java.nio.charset.Charset;
+
+/**
+ * CP866 через таблицы: кодировка однобайтная, так что байт в символ и символ в
+ * байт - просто индекс в массиве
+ * 
+ * @author agent
+ * 
+ */
+public final class Cp866 {
+	private static final char[] DECODE = new char[256];
+	/**
+	 * Символ в байт; 0 - нет в кодировке ( кроме самого \0 )
+	 */
+	private static final byte[] ENCODE = new byte[65536];
+
+	static {
+		byte[] all = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			all[i] = (byte) i;
+		}
+		new String(all, Charset.forName("CP866")).getChars(0, 256, DECODE, 0);
+		for (int i = 255; i > 0; i--) {
+			ENCODE[DECODE[i]] = (byte) i;
+		}
+	}
+
+	private Cp866() {
+	}
+
+	public static char decode(byte b) {
+		return DECODE[b & 0xff];
+	}
+
+	public static String decode(byte[] data, int off, int len) {
+		char[] chars = new char[len];
+		for (int i = 0; i < len; i++) {
+			chars[i] = DECODE[data[off + i] & 0xff];
+		}
+		return new String(chars);
+	}
+
+	public static void decode(byte[] data, int off, int len, StringBuilder sb) {
+		sb.ensureCapacity(sb.length() + len);
+		for (int i = off, end = off + len; i < end; i++) {
+			sb.append(DECODE[data[i] & 0xff]);
+		}
+	}
+
+	/**
+	 * Символ в CP866, как String.getBytes: чего нет в кодировке - '?'
+	 * 
+	 * @param c
+	 * @return
+	 */
+	public static byte encode(char c) {
+		byte b = ENCODE[c];
+		return (b != 0 || c == 0) ? b : (byte) '?';
+	}
+}
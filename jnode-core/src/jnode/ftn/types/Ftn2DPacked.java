@@ -0,0 +1,185 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Компактная запись списка 2D-адресов для базы: байт версии, число адресов
+ * и разности net/node с предыдущим адресом в varint ( zigzag ). Внутри
+ * одного net записывается только разность node, так что отсортированный
+ * SEEN-BY занимает 2-3 байта на адрес
+ * 
+ * @author agent
+ * 
+ */
+public final class Ftn2DPacked {
+	private static final int VERSION = 1;
+	private static final long[] NONE = new long[0];
+
+	private Ftn2DPacked() {
+	}
+
+	/**
+	 * Упаковать ключи Ftn2DSet в заданном порядке
+	 * 
+	 * @param keys
+	 * @param length
+	 * @return
+	 */
+	public static byte[] pack(long[] keys, int length) {
+		byte[] ret = new byte[6 + length * 10];
+		int pos = 0;
+		ret[pos++] = VERSION;
+		pos = writeVarint(ret, pos, length);
+		int net = 0;
+		int node = 0;
+		for (int i = 0; i < length; i++) {
+			int n = Ftn2DSet.net(keys[i]);
+			int d = Ftn2DSet.node(keys[i]);
+			pos = writeVarint(ret, pos, zigzag(n - net));
+			pos = writeVarint(ret, pos, zigzag((n == net) ? d - node : d));
+			net = n;
+			node = d;
+		}
+		return Arrays.copyOf(ret, pos);
+	}
+
+	public static byte[] pack(Ftn2DSet set) {
+		long[] keys = new long[set.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = set.get(i);
+		}
+		return pack(keys, keys.length);
+	}
+
+	/**
+	 * Упаковать список с сохранением порядка ( для PATH )
+	 * 
+	 * @param list
+	 * @return
+	 */
+	public static byte[] pack(Collection<Ftn2D> list) {
+		long[] keys = new long[list.size()];
+		int n = 0;
+		for (Ftn2D ftn : list) {
+			keys[n++] = Ftn2DSet.key(ftn.getNet(), ftn.getNode());
+		}
+		return pack(keys, n);
+	}
+
+	/**
+	 * Ключи в записанном порядке
+	 * 
+	 * @param data
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             испорченные данные
+	 */
+	public static long[] unpack(byte[] data) {
+		if (data == null || data.length == 0) {
+			return NONE;
+		}
+		if (data[0] != VERSION) {
+			throw new IllegalArgumentException("Unknown 2D packing version "
+					+ data[0]);
+		}
+		int[] pos = { 1 };
+		int length = readVarint(data, pos);
+		if (length > data.length) {
+			throw new IllegalArgumentException("Bad 2D packing length "
+					+ length);
+		}
+		long[] keys = new long[length];
+		int net = 0;
+		int node = 0;
+		for (int i = 0; i < length; i++) {
+			int dn = unzigzag(readVarint(data, pos));
+			int dd = unzigzag(readVarint(data, pos));
+			node = (dn == 0) ? node + dd : dd;
+			net += dn;
+			keys[i] = Ftn2DSet.key(net, node);
+		}
+		return keys;
+	}
+
+	public static List<Ftn2D> toList(byte[] data) {
+		long[] keys = unpack(data);
+		List<Ftn2D> ret = new ArrayList<>(keys.length);
+		for (long key : keys) {
+			ret.add(new Ftn2D(Ftn2DSet.net(key), Ftn2DSet.node(key)));
+		}
+		return ret;
+	}
+
+	/**
+	 * Строка как у FtnTools.write2D: "5020/1 5020/2"
+	 * 
+	 * @param data
+	 * @return
+	 */
+	public static String toString(byte[] data) {
+		StringBuilder sb = new StringBuilder();
+		for (long key : unpack(data)) {
+			if (sb.length() > 0) {
+				sb.append(' ');
+			}
+			sb.append(Ftn2DSet.net(key)).append('/')
+					.append(Ftn2DSet.node(key));
+		}
+		return sb.toString();
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static int writeVarint(byte[] buf, int pos, int value) {
+		while ((value & ~0x7f) != 0) {
+			buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+		return pos;
+	}
+
+	private static int readVarint(byte[] buf, int[] pos) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (pos[0] >= buf.length) {
+				throw new IllegalArgumentException("Truncated 2D packing");
+			}
+			byte b = buf[pos[0]++];
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Bad varint in 2D packing");
+	}
+}
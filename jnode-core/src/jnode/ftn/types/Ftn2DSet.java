@@ -0,0 +1,222 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.types;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Неизменяемое множество 2D-адресов: отсортированный массив long, в каждом
+ * net и node. Порядок совпадает с FtnTools.Ftn2DComparator, так что SEEN-BY
+ * пишется без сортировки и без объектов Ftn2D
+ * 
+ * @author agent
+ * 
+ */
+public final class Ftn2DSet {
+	public static final Ftn2DSet EMPTY = new Ftn2DSet(new long[0]);
+	private final long[] keys;
+
+	private Ftn2DSet(long[] keys) {
+		this.keys = keys;
+	}
+
+	public static long key(int net, int node) {
+		return ((long) net << 32) | ((node ^ Integer.MIN_VALUE) & 0xffffffffL);
+	}
+
+	public static int net(long key) {
+		return (int) (key >> 32);
+	}
+
+	public static int node(long key) {
+		return ((int) key) ^ Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Из массива ключей в любом порядке ( массив используется как есть )
+	 * 
+	 * @param keys
+	 * @param length
+	 * @return
+	 */
+	private static Ftn2DSet sorted(long[] keys, int length) {
+		Arrays.sort(keys, 0, length);
+		int n = 0;
+		for (int i = 0; i < length; i++) {
+			if (n == 0 || keys[n - 1] != keys[i]) {
+				keys[n++] = keys[i];
+			}
+		}
+		return new Ftn2DSet((n == keys.length) ? keys : Arrays.copyOf(keys, n));
+	}
+
+	public static Ftn2DSet of(Collection<Ftn2D> list) {
+		long[] keys = new long[list.size()];
+		int n = 0;
+		for (Ftn2D ftn : list) {
+			keys[n++] = key(ftn.getNet(), ftn.getNode());
+		}
+		return sorted(keys, n);
+	}
+
+	/**
+	 * Из ключей в любом порядке, например Ftn2DPacked.unpack ( массив
+	 * используется как есть )
+	 *
+	 * @param keys
+	 * @return
+	 */
+	public static Ftn2DSet of(long[] keys) {
+		return sorted(keys, keys.length);
+	}
+
+	public static Ftn2DSet of(int[] nets, int[] nodes, int length) {
+		long[] keys = new long[length];
+		for (int i = 0; i < length; i++) {
+			keys[i] = key(nets[i], nodes[i]);
+		}
+		return sorted(keys, length);
+	}
+
+	/**
+	 * Разбор 2D-адресов через пробел ( как FtnTools.read2D ): "5020/1 2
+	 * 463/68". Неразборчивые адреса пропускаются
+	 * 
+	 * @param list2d
+	 * @return
+	 */
+	public static Ftn2DSet parse(String list2d) {
+		if (list2d == null || list2d.trim().length() == 0) {
+			return EMPTY;
+		}
+		long[] keys = new long[8];
+		int n = 0;
+		int len = list2d.length();
+		boolean hasNet = false;
+		int net = 0;
+		int start = 0;
+		while (start <= len) {
+			int end = list2d.indexOf(' ', start);
+			if (end < 0) {
+				end = len;
+			}
+			int slash = list2d.indexOf('/', start);
+			if (slash >= end) {
+				slash = -1;
+			}
+			try {
+				int node;
+				if (slash >= 0) {
+					net = Integer.parseInt(list2d.substring(start, slash));
+					node = Integer.parseInt(list2d.substring(slash + 1, end));
+					hasNet = true;
+				} else if (hasNet) {
+					node = Integer.parseInt(list2d.substring(start, end));
+				} else {
+					throw new NumberFormatException();
+				}
+				if (n == keys.length) {
+					keys = Arrays.copyOf(keys, n * 2);
+				}
+				keys[n++] = key(net, node);
+			} catch (NumberFormatException e) {
+				hasNet = false;
+			}
+			start = end + 1;
+		}
+		return sorted(keys, n);
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	public long get(int i) {
+		return keys[i];
+	}
+
+	public boolean contains(int net, int node) {
+		return Arrays.binarySearch(keys, key(net, node)) >= 0;
+	}
+
+	public Ftn2DSet with(int net, int node) {
+		long key = key(net, node);
+		int pos = Arrays.binarySearch(keys, key);
+		if (pos >= 0) {
+			return this;
+		}
+		pos = -pos - 1;
+		long[] ret = new long[keys.length + 1];
+		System.arraycopy(keys, 0, ret, 0, pos);
+		ret[pos] = key;
+		System.arraycopy(keys, pos, ret, pos + 1, keys.length - pos);
+		return new Ftn2DSet(ret);
+	}
+
+	/**
+	 * Объединение слиянием
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public Ftn2DSet union(Ftn2DSet other) {
+		if (other.keys.length == 0) {
+			return this;
+		}
+		if (keys.length == 0) {
+			return other;
+		}
+		long[] a = keys;
+		long[] b = other.keys;
+		long[] ret = new long[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				ret[n++] = a[i++];
+			} else if (a[i] > b[j]) {
+				ret[n++] = b[j++];
+			} else {
+				ret[n++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length) {
+			ret[n++] = a[i++];
+		}
+		while (j < b.length) {
+			ret[n++] = b[j++];
+		}
+		return new Ftn2DSet((n == ret.length) ? ret : Arrays.copyOf(ret, n));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(net(keys[i])).append('/').append(node(keys[i]));
+		}
+		return sb.append(']').toString();
+	}
+}
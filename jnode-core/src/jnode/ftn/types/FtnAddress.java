@@ -21,7 +21,7 @@
 package jnode.ftn.types;
 
 import java.io.Serializable;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import jnode.main.MainHandler;
@@ -34,32 +34,126 @@ import jnode.main.MainHandler;
 public class FtnAddress implements Serializable {
 
 	private static final long serialVersionUID = 1L;
+	private static final int CACHE_SIZE = 4096;
+	private static final ConcurrentHashMap<String, FtnAddress> cache = new ConcurrentHashMap<>();
 	protected int zone;
 	protected int net;
 	protected int node;
 	protected int point;
+	/**
+	 * Формат адреса; разбирается вручную, см. parse
+	 */
 	public static final Pattern fidonetAddress = Pattern
 			.compile("^(\\d)?:?(\\d{1,5})/(\\d{1,5})\\.?(\\d{1,5})?@?(\\S+)?$");
 
 	public FtnAddress(String addr) throws NumberFormatException {
+		parse(addr);
+	}
 
-		Matcher m = fidonetAddress.matcher(addr);
-		if (m.matches()) {
-			if (m.group(1) != null && m.group(1).length() > 0) {
-				zone = new Integer(m.group(1));
-			} else {
-				zone = MainHandler.getCurrentInstance().getInfo().getZone();
+	/**
+	 * Общий неизменяемый адрес для поиска, сравнения и ключей. Для изменения
+	 * - clone()
+	 * 
+	 * @param addr
+	 * @return
+	 * @throws NumberFormatException
+	 */
+	public static FtnAddress valueOf(String addr) throws NumberFormatException {
+		FtnAddress ret = cache.get(addr);
+		if (ret == null) {
+			ret = new Interned(addr);
+			if (cache.size() >= CACHE_SIZE) {
+				cache.clear();
 			}
-			net = new Integer(m.group(2));
-			node = new Integer(m.group(3));
-			if (m.group(4) != null && m.group(4).length() > 0) {
-				point = new Integer(m.group(4));
-			} else {
-				point = 0;
+			FtnAddress prev = cache.putIfAbsent(addr, ret);
+			if (prev != null) {
+				ret = prev;
 			}
-		} else {
+		}
+		return ret;
+	}
+
+	/**
+	 * Разбор так же, как fidonetAddress.matcher(addr).matches(): зона - одна
+	 * цифра перед необязательным двоеточием, в net, node и point до 5 цифр,
+	 * хвост после point без пробелов игнорируется
+	 * 
+	 * @param addr
+	 */
+	private void parse(String addr) {
+		int len = addr.length();
+		int slash = -1;
+		if (len > 0 && isDigit(addr.charAt(0))) {
+			int start = (len > 1 && addr.charAt(1) == ':') ? 2 : 1;
+			slash = findSlash(addr, start);
+			if (slash > 0) {
+				zone = addr.charAt(0) - '0';
+				net = number(addr, start, slash);
+			}
+		}
+		if (slash < 0) {
+			int start = (len > 0 && addr.charAt(0) == ':') ? 1 : 0;
+			slash = findSlash(addr, start);
+			if (slash < 0) {
+				throw new NumberFormatException(addr
+						+ " is invalid ftn address");
+			}
+			zone = MainHandler.getCurrentInstance().getInfo().getZone();
+			net = number(addr, start, slash);
+		}
+		int pos = slash + 1;
+		int end = pos + Math.min(digits(addr, pos), 5);
+		if (end == pos) {
 			throw new NumberFormatException(addr + " is invalid ftn address");
 		}
+		node = number(addr, pos, end);
+		for (int i = end; i < len; i++) {
+			switch (addr.charAt(i)) {
+			case ' ':
+			case '\t':
+			case '\n':
+			case '\u000B':
+			case '\f':
+			case '\r':
+				throw new NumberFormatException(addr
+						+ " is invalid ftn address");
+			}
+		}
+		pos = (end < len && addr.charAt(end) == '.') ? end + 1 : end;
+		end = pos + Math.min(digits(addr, pos), 5);
+		point = number(addr, pos, end);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static int digits(String addr, int pos) {
+		int i = pos;
+		while (i < addr.length() && isDigit(addr.charAt(i))) {
+			i++;
+		}
+		return i - pos;
+	}
+
+	/**
+	 * @return позиция '/' после 1-5 цифр или -1
+	 */
+	private static int findSlash(String addr, int pos) {
+		int n = digits(addr, pos);
+		if (n < 1 || n > 5 || pos + n >= addr.length()
+				|| addr.charAt(pos + n) != '/') {
+			return -1;
+		}
+		return pos + n;
+	}
+
+	private static int number(String addr, int start, int end) {
+		int ret = 0;
+		for (int i = start; i < end; i++) {
+			ret = ret * 10 + (addr.charAt(i) - '0');
+		}
+		return ret;
 	}
 
 	public FtnAddress(int zone, int net, int node, int point) {
@@ -78,17 +172,22 @@ public class FtnAddress implements Serializable {
 
 	@Override
 	public String toString() {
-		return (point > 0) ? String.format("%d:%d/%d.%d", zone, net, node,
-				point) : String.format("%d:%d/%d", zone, net, node);
+		StringBuilder sb = new StringBuilder(20);
+		sb.append(zone).append(':').append(net).append('/').append(node);
+		if (point > 0) {
+			sb.append('.').append(point);
+		}
+		return sb.toString();
 	}
 
 	public String intl() {
-		return String.format("%d:%d/%d", zone, net, node);
+		return new StringBuilder(16).append(zone).append(':').append(net)
+				.append('/').append(node).toString();
 	}
 
 	public String topt() {
 		if (point != 0) {
-			return String.format("\001TOPT %d\r", point);
+			return "\001TOPT " + point + "\r";
 		} else {
 			return "";
 		}
@@ -96,7 +195,7 @@ public class FtnAddress implements Serializable {
 
 	public String fmpt() {
 		if (point != 0) {
-			return String.format("\001FMPT %d\r", point);
+			return "\001FMPT " + point + "\r";
 		} else {
 			return "";
 		}
@@ -184,4 +283,52 @@ public class FtnAddress implements Serializable {
 		return new FtnAddress(zone, net, node, 0);
 	}
 
+	/**
+	 * Адрес из кэша valueOf: строка и хэш посчитаны заранее, изменять нельзя
+	 * 
+	 * @author agent
+	 * 
+	 */
+	private static final class Interned extends FtnAddress {
+		private static final long serialVersionUID = 1L;
+		private final String string;
+		private final int hash;
+
+		Interned(String addr) {
+			super(addr);
+			string = super.toString();
+			hash = super.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return string;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public void setZone(int zone) {
+			throw new UnsupportedOperationException(string + " is shared");
+		}
+
+		@Override
+		public void setNet(int net) {
+			throw new UnsupportedOperationException(string + " is shared");
+		}
+
+		@Override
+		public void setNode(int node) {
+			throw new UnsupportedOperationException(string + " is shared");
+		}
+
+		@Override
+		public void setPoint(int point) {
+			throw new UnsupportedOperationException(string + " is shared");
+		}
+	}
+
 }
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.types;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Кодирование пакетов и сообщений в один буфер на поток: поля заголовка и
+ * текст в CP866 пишутся сразу байтами, \n в тексте становится \r по ходу
+ * дела
+ * 
+ * @author agent
+ * 
+ */
+public final class FtnEncoder {
+	private static final int SIZE = 8192;
+	private static final byte[][] MONTHS = new byte[12][];
+	private static final ThreadLocal<FtnEncoder> local = new ThreadLocal<FtnEncoder>() {
+		@Override
+		protected FtnEncoder initialValue() {
+			return new FtnEncoder();
+		}
+	};
+
+	static {
+		String[] months = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul",
+				"Aug", "Sep", "Oct", "Nov", "Dec" };
+		for (int i = 0; i < 12; i++) {
+			MONTHS[i] = months[i].getBytes();
+		}
+	}
+
+	private final Calendar calendar = Calendar.getInstance();
+	private byte[] data = new byte[SIZE];
+	private int length;
+
+	/**
+	 * Пустой кодировщик этого потока
+	 * 
+	 * @return
+	 */
+	public static FtnEncoder get() {
+		FtnEncoder ret = local.get();
+		ret.length = 0;
+		if (ret.data.length > 64 * SIZE) {
+			ret.data = new byte[SIZE];
+		}
+		return ret;
+	}
+
+	private FtnEncoder() {
+	}
+
+	private void ensure(int free) {
+		if (length + free > data.length) {
+			data = Arrays.copyOf(data, Math.max(data.length * 2, length + free));
+		}
+	}
+
+	public FtnEncoder write(int b) {
+		ensure(1);
+		data[length++] = (byte) b;
+		return this;
+	}
+
+	public FtnEncoder write(byte[] b) {
+		ensure(b.length);
+		System.arraycopy(b, 0, data, length, b.length);
+		length += b.length;
+		return this;
+	}
+
+	/**
+	 * short в порядке little-endian
+	 */
+	public FtnEncoder writeShort(int s) {
+		ensure(2);
+		data[length++] = (byte) s;
+		data[length++] = (byte) (s >> 8);
+		return this;
+	}
+
+	/**
+	 * Строка в CP866, не больше maxlen байт
+	 */
+	public FtnEncoder write(String s, int maxlen) {
+		return write(s, maxlen, false);
+	}
+
+	/**
+	 * Строка в CP866
+	 */
+	public FtnEncoder write(String s) {
+		return write(s, Integer.MAX_VALUE, false);
+	}
+
+	/**
+	 * Текст в CP866, \n заменяется на \r
+	 */
+	public FtnEncoder writeText(CharSequence s) {
+		return write(s, Integer.MAX_VALUE, true);
+	}
+
+	private FtnEncoder write(CharSequence s, int maxlen, boolean text) {
+		int len = s.length();
+		ensure(Math.min(len, maxlen));
+		int end = length + maxlen;
+		if (end < 0) {
+			end = Integer.MAX_VALUE;
+		}
+		for (int i = 0; i < len && length < end; i++) {
+			char c = s.charAt(i);
+			if (text && c == '\n') {
+				c = '\r';
+			} else if (Character.isHighSurrogate(c) && i + 1 < len
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				// пара - один символ, как у String.getBytes
+				i++;
+			}
+			if (length == data.length) {
+				ensure(1);
+			}
+			data[length++] = Cp866.encode(c);
+		}
+		return this;
+	}
+
+	/**
+	 * Число десятичными цифрами
+	 */
+	public FtnEncoder writeNumber(long n) {
+		return write(Long.toString(n));
+	}
+
+	private void twoDigits(int n) {
+		write('0' + n / 10 % 10);
+		write('0' + n % 10);
+	}
+
+	/**
+	 * Дата сообщения: "dd MMM yy  HH:mm:ss"
+	 */
+	public FtnEncoder writeDate(Date date) {
+		calendar.setTime(date);
+		twoDigits(calendar.get(Calendar.DAY_OF_MONTH));
+		write(' ');
+		write(MONTHS[calendar.get(Calendar.MONTH)]);
+		write(' ');
+		twoDigits(calendar.get(Calendar.YEAR) % 100);
+		write(' ');
+		write(' ');
+		twoDigits(calendar.get(Calendar.HOUR_OF_DAY));
+		write(':');
+		twoDigits(calendar.get(Calendar.MINUTE));
+		write(':');
+		twoDigits(calendar.get(Calendar.SECOND));
+		return this;
+	}
+
+	/**
+	 * Дата пакета: год, месяц ( с нуля ), день, часы, минуты, секунды
+	 */
+	public FtnEncoder writePktDate(Date date) {
+		calendar.setTime(date);
+		writeShort(calendar.get(Calendar.YEAR));
+		writeShort(calendar.get(Calendar.MONTH));
+		writeShort(calendar.get(Calendar.DAY_OF_MONTH));
+		writeShort(calendar.get(Calendar.HOUR_OF_DAY));
+		writeShort(calendar.get(Calendar.MINUTE));
+		writeShort(calendar.get(Calendar.SECOND));
+		return this;
+	}
+
+	public int size() {
+		return length;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(data, length);
+	}
+
+	/**
+	 * Отдать накопленное в поток и очистить буфер
+	 * 
+	 * @param os
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream os) throws IOException {
+		os.write(data, 0, length);
+		length = 0;
+	}
+}
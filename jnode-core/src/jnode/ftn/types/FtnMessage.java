@@ -21,9 +21,6 @@
 package jnode.ftn.types;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -75,8 +72,25 @@ public class FtnMessage {
 	private List<Ftn2D> path;
 	private boolean isNetmail;
 	private String msgid;
+	/**
+	 * Текст из пакета, еще не разобранный ( см. decodeBody )
+	 */
+	private byte[] body;
 	FtnPkt pkt;
 
+	private static final byte[] AREA = { 'A', 'R', 'E', 'A', ':' };
+	private static final byte[] MSGID = { 1, 'M', 'S', 'G', 'I', 'D', ':',
+			' ' };
+	private static final byte[] INTL = { 1, 'I', 'N', 'T', 'L', ' ' };
+	private static final byte[] TOPT = { 1, 'T', 'O', 'P', 'T', ' ' };
+	private static final byte[] FMPT = { 1, 'F', 'M', 'P', 'T', ' ' };
+	private static final byte[] SEENBY = { 'S', 'E', 'E', 'N', '-', 'B',
+			'Y', ':', ' ' };
+	private static final byte[] PATH = { 1, 'P', 'A', 'T', 'H', ':', ' ' };
+	private static final byte[] ORIGIN = { ' ', '*', ' ', 'O', 'r', 'i',
+			'g', 'i', 'n', ':', ' ' };
+	private static final Pattern ORIGIN_ADDRESS = Pattern
+			.compile("([1-5]?:?\\d{1,5}/\\d{1,5}(\\.\\d{1,5})?)");
 	private static final ConcurrentDateFormatAccess FORMAT = new ConcurrentDateFormatAccess(
 			"dd MMM yy  HH:mm:ss", Locale.US);
 
@@ -102,10 +116,12 @@ public class FtnMessage {
 	}
 
 	public FtnAddress getFromAddr() {
+		decodeBody();
 		return fromAddr;
 	}
 
 	public void setFromAddr(FtnAddress fromAddr) {
+		decodeBody();
 		this.fromAddr = fromAddr;
 	}
 
@@ -134,10 +150,12 @@ public class FtnMessage {
 	}
 
 	public String getText() {
+		decodeBody();
 		return text;
 	}
 
 	public void setText(String text) {
+		decodeBody();
 		this.text = text;
 	}
 
@@ -150,18 +168,22 @@ public class FtnMessage {
 	}
 
 	public List<Ftn2D> getSeenby() {
+		decodeBody();
 		return seenby;
 	}
 
 	public void setSeenby(List<Ftn2D> seenby) {
+		decodeBody();
 		this.seenby = seenby;
 	}
 
 	public List<Ftn2D> getPath() {
+		decodeBody();
 		return path;
 	}
 
 	public void setPath(List<Ftn2D> path) {
+		decodeBody();
 		this.path = path;
 	}
 
@@ -190,64 +212,63 @@ public class FtnMessage {
 	}
 
 	public byte[] pack() {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		write(bos);
+		FtnEncoder enc = FtnEncoder.get();
+		encode(enc);
+		return enc.toByteArray();
+	}
+
+	public void write(OutputStream os) {
+		FtnEncoder enc = FtnEncoder.get();
+		encode(enc);
 		try {
-			bos.close();
+			enc.writeTo(os);
 		} catch (IOException e) {
+			// zzz
 		}
-		return bos.toByteArray();
 	}
 
-	public void write(OutputStream _os) {
-		DataOutputStream os = new DataOutputStream(_os);
-		try {
-			os.write(new byte[] { 2, 0 });
-			os.writeShort(FtnTools.revShort(fromAddr.getNode()));
-			os.writeShort(FtnTools.revShort(toAddr.getNode()));
-			os.writeShort(FtnTools.revShort(fromAddr.getNet()));
-			os.writeShort(FtnTools.revShort(toAddr.getNet()));
-			if (isNetmail) {
-				// attribute &= ATTR_PVT;
-				os.writeShort(FtnTools.revShort((short) attribute)); // attributes
-			} else {
-				os.write(new byte[] { 0, 0 });
-			}
-			os.write(new byte[] { 0, 0 });
-			os.write(FtnTools.substr(FORMAT.format(date), 19));
-			os.write(0);
-			os.write(FtnTools.substr(toName, 35));
-			os.write(0);
-			os.write(FtnTools.substr(fromName, 35));
-			os.write(0);
-			os.write(FtnTools.substr(subject, 71));
-			os.write(0);
-			if (!isNetmail) {
-				os.writeBytes(String.format("AREA:%s\r", area));
-			} else {
-				os.writeBytes(String.format("\001INTL %s %s\r", toAddr.intl(),
-						fromAddr.intl()));
-				os.writeBytes(fromAddr.fmpt());
-				os.writeBytes(toAddr.topt());
-			}
-			StringBuilder sb = new StringBuilder();
-			if (msgid != null) {
-				os.writeBytes(String.format("\001MSGID: %s\r", msgid));
-			}
-			sb.append(text);
-			if (sb.charAt(sb.length() - 1) != '\n') {
-				sb.append('\n');
+	private void encode(FtnEncoder enc) {
+		decodeBody();
+		enc.write(2).write(0);
+		enc.writeShort(fromAddr.getNode());
+		enc.writeShort(toAddr.getNode());
+		enc.writeShort(fromAddr.getNet());
+		enc.writeShort(toAddr.getNet());
+		if (isNetmail) {
+			// attribute &= ATTR_PVT;
+			enc.writeShort(attribute); // attributes
+		} else {
+			enc.writeShort(0);
+		}
+		enc.writeShort(0);
+		enc.writeDate(date).write(0);
+		enc.write(toName, 35).write(0);
+		enc.write(fromName, 35).write(0);
+		enc.write(subject, 71).write(0);
+		if (!isNetmail) {
+			enc.write(AREA).write(area).write('\r');
+		} else {
+			enc.write(INTL).write(toAddr.intl()).write(' ')
+					.write(fromAddr.intl()).write('\r');
+			if (fromAddr.getPoint() != 0) {
+				enc.write(FMPT).writeNumber(fromAddr.getPoint()).write('\r');
 			}
-			if (!isNetmail) {
-				sb.append(FtnTools.writeSeenBy(seenby));
-				sb.append(FtnTools.writePath(path));
+			if (toAddr.getPoint() != 0) {
+				enc.write(TOPT).writeNumber(toAddr.getPoint()).write('\r');
 			}
-			os.write(sb.toString().replaceAll("\n", "\r")
-					.getBytes(FtnTools.CP_866));
-			os.write(0);
-		} catch (IOException e) {
-			// zzz
 		}
+		if (msgid != null) {
+			enc.write(MSGID).write(msgid).write('\r');
+		}
+		enc.writeText(text);
+		if (text.isEmpty() || text.charAt(text.length() - 1) != '\n') {
+			enc.write('\r');
+		}
+		if (!isNetmail) {
+			enc.writeText(FtnTools.writeSeenBy(seenby));
+			enc.writeText(FtnTools.writePath(path));
+		}
+		enc.write(0);
 	}
 
 	public void unpack(byte[] data) throws LastMessageException {
@@ -262,142 +283,277 @@ public class FtnMessage {
 	}
 
 	public void unpack(InputStream iz) throws LastMessageException {
-		DataInputStream is = new DataInputStream(iz);
+		MessageBuffer buf = MessageBuffer.get();
 		fromAddr = new FtnAddress();
 		toAddr = new FtnAddress();
 		try {
-			if (is.read() == 2 && is.read() == 0) { // 2.0 msg
-				fromAddr.setNode(FtnTools.revShort(is.readShort()));
-				toAddr.setNode(FtnTools.revShort(is.readShort()));
-				fromAddr.setNet(FtnTools.revShort(is.readShort()));
-				toAddr.setNet(FtnTools.revShort(is.readShort()));
-				attribute = FtnTools.revShort(is.readShort());
-				is.skip(2);
-				date = FORMAT.parse(FtnTools.readUntillNull(is));
-				toName = FtnTools.readUntillNull(is);
-				fromName = FtnTools.readUntillNull(is);
-				subject = FtnTools.readUntillNull(is);
-				String lines[] = FtnTools.readUntillNull(is)
-						.replaceAll("\n", "").split("\r");
-				StringBuilder builder = new StringBuilder();
-				int linenum = 0;
-				boolean eofKluges = false;
-				boolean preOrigin = false;
-				boolean afterOrigin = false;
-				Pattern netmail = Pattern
-						.compile("^\001(INTL|FMPT|TOPT) (.*)$");
-				Pattern origin = Pattern.compile("^ \\* Origin: ([\\S\\t ]*)$");
-				Pattern msgid = Pattern.compile("^\001MSGID: (.*)$");
-				Pattern tzutc = Pattern.compile("^\001TZUTC: (\\d+)$");
-				StringBuilder seenby = new StringBuilder();
-				StringBuilder path = new StringBuilder();
-				for (String line : lines) {
-					linenum++;
-					if (linenum == 1) {
-						if (line.matches("^AREA:\\S+$")) {
-							isNetmail = false;
-							area = line.replaceFirst("^AREA:", "");
-							continue;
-						} else {
-							isNetmail = true;
-						}
-					}
+			if (iz.read() == 2 && iz.read() == 0) { // 2.0 msg
+				int h = buf.readFully(iz, 12);
+				byte[] data = buf.data;
+				fromAddr.setNode(readShort(data, h));
+				toAddr.setNode(readShort(data, h + 2));
+				fromAddr.setNet(readShort(data, h + 4));
+				toAddr.setNet(readShort(data, h + 6));
+				attribute = readShort(data, h + 8);
+				int off = buf.readUntilNull(iz);
+				date = FORMAT.parse(Cp866.decode(buf.data, off, buf.length
+						- off));
+				off = buf.readUntilNull(iz);
+				toName = Cp866.decode(buf.data, off, buf.length - off);
+				off = buf.readUntilNull(iz);
+				fromName = Cp866.decode(buf.data, off, buf.length - off);
+				off = buf.readUntilNull(iz);
+				subject = Cp866.decode(buf.data, off, buf.length - off);
+				off = buf.readUntilNull(iz);
+				body = stripLf(buf.data, off, buf.length);
+				unpackBody(body, true);
+			} else {
+				throw new LastMessageException("2.0 is not out version");
+			}
+		} catch (IOException | LastMessageException | ParseException e) {
+			throw new LastMessageException(e);
+		}
+	}
+
+	private static int readShort(byte[] data, int off) {
+		return (short) ((data[off] & 0xff) | (data[off + 1] << 8));
+	}
+
+	private static boolean startsWith(byte[] data, int from, int to,
+			byte[] prefix) {
+		if (to - from < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[from + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Текст без \n
+	 */
+	private static byte[] stripLf(byte[] data, int from, int to) {
+		int len = 0;
+		for (int i = from; i < to; i++) {
+			if (data[i] != '\n') {
+				len++;
+			}
+		}
+		byte[] ret = new byte[len];
+		len = 0;
+		for (int i = from; i < to; i++) {
+			if (data[i] != '\n') {
+				ret[len++] = data[i];
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Разбор текста, отложенный до первого обращения к тексту, SEEN-BY,
+	 * PATH или адресу отправителя ( он берется из Origin ). Дупы и письма в
+	 * чужие эхи так и не разбираются
+	 */
+	private void decodeBody() {
+		if (body != null) {
+			byte[] data = body;
+			body = null;
+			unpackBody(data, false);
+		}
+	}
 
-					if (!eofKluges && linenum > 1 && !line.matches("^\001.*$")) {
-						eofKluges = true;
+	/**
+	 * Текст письма: строки делятся по \r ( пустые строки в конце
+	 * отбрасываются, как у String.split ). Кладжи, SEEN-BY и PATH узнаются по
+	 * первым байтам, в строки декодируется только нужное
+	 * 
+	 * @param data
+	 *            текст без \n
+	 * @param header
+	 *            true - только AREA и кладжи в начале ( MSGID, INTL, TOPT,
+	 *            FMPT ), false - только текст, SEEN-BY, PATH и Origin
+	 */
+	private void unpackBody(byte[] data, boolean header) {
+		int to = data.length;
+		int last = to;
+		boolean hasCr = false;
+		for (int i = 0; i < to; i++) {
+			if (data[i] == '\r') {
+				hasCr = true;
+				break;
+			}
+		}
+		if (hasCr) {
+			while (last > 0 && data[last - 1] == '\r') {
+				last--;
+			}
+		}
+		StringBuilder builder = new StringBuilder(header ? 0 : to + 16);
+		int linenum = 0;
+		boolean netmail = true;
+		boolean eofKluges = false;
+		boolean preOrigin = false;
+		boolean afterOrigin = false;
+		StringBuilder seenby = new StringBuilder();
+		StringBuilder path = new StringBuilder();
+		int start = 0;
+		while (start < last || (!hasCr && linenum == 0)) {
+			int end = start;
+			while (end < last && data[end] != '\r') {
+				end++;
+			}
+			int lineStart = start;
+			start = end + 1;
+			linenum++;
+			if (linenum == 1) {
+				netmail = !isArea(data, lineStart, end);
+				if (header) {
+					isNetmail = netmail;
+				}
+				if (!netmail) {
+					if (header) {
+						area = Cp866.decode(data, lineStart + AREA.length, end
+								- lineStart - AREA.length);
 					}
+					continue;
+				}
+			}
 
-					if (!eofKluges) {
-						Matcher m = msgid.matcher(line);
-						if (m.matches()) {
-							this.msgid = m.group(1);
-							if (!isNetmail) { // TODO: msgid in netmail
-								continue;
-							}
-						}
-						m = tzutc.matcher(line);
-						// TODO
-						// if(m.matches()) {
-						// Calendar.getInstance(new TimeZ)
-						// }
-
-						if (isNetmail) {
-							m = netmail.matcher(line);
-							if (m.matches()) {
-								String kluge = m.group(1);
-								String arg = m.group(2);
-								switch (kluge) {
-								case "INTL":
-									String tmp[] = arg.split(" ");
-									toAddr = new FtnAddress(tmp[0]);
-									fromAddr = new FtnAddress(tmp[1]);
-									break;
-								case "TOPT":
-									toAddr.setPoint(new Integer(arg));
-									break;
-								case "FMPT":
-									fromAddr.setPoint(new Integer(arg));
-									break;
-								}
-								continue;
-							}
-						}
-						builder.append(line);
-						builder.append('\n');
-
-					} else if (preOrigin && !isNetmail) {
-						if (line.startsWith("SEEN-BY: ")) {
-							afterOrigin = true;
-						} else {
-							preOrigin = false;
+			boolean kluge = end > lineStart && data[lineStart] == 1;
+			if (!eofKluges && linenum > 1 && !kluge) {
+				eofKluges = true;
+			}
+
+			if (!eofKluges) {
+				if (startsWith(data, lineStart, end, MSGID)) {
+					if (header) {
+						this.msgid = Cp866.decode(data,
+								lineStart + MSGID.length, end - lineStart
+										- MSGID.length);
+					}
+					if (!netmail) { // TODO: msgid in netmail
+						continue;
+					}
+				}
+				if (netmail) {
+					if (startsWith(data, lineStart, end, INTL)) {
+						if (header) {
+							String tmp[] = Cp866.decode(data,
+									lineStart + INTL.length,
+									end - lineStart - INTL.length).split(" ");
+							toAddr = new FtnAddress(tmp[0]);
+							fromAddr = new FtnAddress(tmp[1]);
 						}
-						if (afterOrigin) {
-							if (line.startsWith("SEEN-BY: ")) {
-								seenby.append(line);
-								seenby.append('\n');
-							} else if (line.startsWith("\001PATH: ")) {
-								path.append(line);
-								path.append('\n');
-							}
+						continue;
+					} else if (startsWith(data, lineStart, end, TOPT)) {
+						if (header) {
+							toAddr.setPoint(Integer.parseInt(Cp866.decode(data,
+									lineStart + TOPT.length, end - lineStart
+											- TOPT.length)));
 						}
-					} else {
-						if (!isNetmail) {
-							Matcher m = origin.matcher(line);
-							if (m.matches()) {
-								Pattern f = Pattern
-										.compile("([1-5]?:?\\d{1,5}/\\d{1,5}(\\.\\d{1,5})?)");
-								preOrigin = true;
-								String orig = m.group(1);
-								Matcher fm = f.matcher(orig);
-								while (fm.find()) {
-									try {
-										fromAddr = new FtnAddress(fm.group(1));
-									} catch (NumberFormatException e) {
-										logger.l3("Bad address in origin");
-									}
-								}
-							}
+						continue;
+					} else if (startsWith(data, lineStart, end, FMPT)) {
+						if (header) {
+							fromAddr.setPoint(Integer.parseInt(Cp866.decode(data,
+									lineStart + FMPT.length, end - lineStart
+											- FMPT.length)));
 						}
-						builder.append(line);
-						builder.append('\n');
+						continue;
+					}
+				}
+				if (!header) {
+					Cp866.decode(data, lineStart, end - lineStart, builder);
+					builder.append('\n');
+				}
+			} else if (header) {
+				// дальше заголовка ничего нет
+				return;
+			} else if (preOrigin && !netmail) {
+				boolean isSeenby = startsWith(data, lineStart, end, SEENBY);
+				if (isSeenby) {
+					afterOrigin = true;
+				} else {
+					preOrigin = false;
+				}
+				if (afterOrigin) {
+					if (isSeenby) {
+						Cp866.decode(data, lineStart, end - lineStart, seenby);
+						seenby.append('\n');
+					} else if (startsWith(data, lineStart, end, PATH)) {
+						Cp866.decode(data, lineStart, end - lineStart, path);
+						path.append('\n');
 					}
 				}
-				this.seenby = FtnTools.readSeenBy(seenby.toString());
-				this.path = FtnTools.readPath(path.toString());
-				text = builder.toString();
 			} else {
-				throw new LastMessageException("2.0 is not out version");
+				if (!netmail && isOrigin(data, lineStart, end)) {
+					preOrigin = true;
+					Matcher fm = ORIGIN_ADDRESS.matcher(Cp866.decode(data,
+							lineStart + ORIGIN.length, end - lineStart
+									- ORIGIN.length));
+					while (fm.find()) {
+						try {
+							fromAddr = new FtnAddress(fm.group(1));
+						} catch (NumberFormatException e) {
+							logger.l3("Bad address in origin");
+						}
+					}
+				}
+				Cp866.decode(data, lineStart, end - lineStart, builder);
+				builder.append('\n');
 			}
-		} catch (IOException | LastMessageException | ParseException e) {
-			throw new LastMessageException(e);
 		}
+		if (!header) {
+			this.seenby = FtnTools.readSeenBy(seenby.toString());
+			this.path = FtnTools.readPath(path.toString());
+			text = builder.toString();
+		}
+	}
+
+	/**
+	 * ^AREA:\S+$
+	 */
+	private static boolean isArea(byte[] data, int from, int to) {
+		if (to - from <= AREA.length || !startsWith(data, from, to, AREA)) {
+			return false;
+		}
+		for (int i = from + AREA.length; i < to; i++) {
+			if (isSpace(data[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * ^ \* Origin: ([\S\t ]*)$
+	 */
+	private static boolean isOrigin(byte[] data, int from, int to) {
+		if (!startsWith(data, from, to, ORIGIN)) {
+			return false;
+		}
+		for (int i = from + ORIGIN.length; i < to; i++) {
+			if (data[i] != '\t' && data[i] != ' ' && isSpace(data[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * \s регулярных выражений
+	 */
+	private static boolean isSpace(byte b) {
+		return b == ' ' || (b >= '\t' && b <= '\r');
 	}
 
 	@Override
 	public String toString() {
 		return String
 				.format("MSG FROM %s@%s, TO %s@%s, ATTRS %d, MSGID %s, TYPE %s, AREA %s, SUBJECT %s",
-						fromName, fromAddr.toString(), toName, toAddr
+						fromName, getFromAddr().toString(), toName, toAddr
 								.toString(), attribute, msgid,
 						(isNetmail) ? "netmail" : "echomail", (isNetmail) ? "-"
 								: area, subject);
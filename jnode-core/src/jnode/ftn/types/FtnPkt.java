@@ -22,15 +22,12 @@ package jnode.ftn.types;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Locale;
 
-import jnode.core.ConcurrentDateFormatAccess;
 import jnode.ftn.FtnTools;
 import jnode.ftn.exception.LastMessageException;
 import jnode.install.DefaultVersion;
@@ -49,9 +46,6 @@ public class FtnPkt {
 	private Date date;
 	private InputStream is;
 	private boolean close;
-	private static final ConcurrentDateFormatAccess FORMAT = new ConcurrentDateFormatAccess(
-			"yyyy MM dd HH mm ss", Locale.US);
-
 	public FtnAddress getFromAddr() {
 		return fromAddr;
 	}
@@ -81,60 +75,51 @@ public class FtnPkt {
 	}
 
 	public byte[] pack() {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		write(bos);
-		try {
-			bos.close();
-		} catch (IOException e) {
-		}
-		return bos.toByteArray();
+		FtnEncoder enc = FtnEncoder.get();
+		encode(enc);
+		return enc.toByteArray();
 	}
 
 	public void write(OutputStream fos) {
-		DataOutputStream os = new DataOutputStream(fos);
+		FtnEncoder enc = FtnEncoder.get();
+		encode(enc);
 		try {
-			os.writeShort(FtnTools.revShort(fromAddr.getNode()));
-			os.writeShort(FtnTools.revShort(toAddr.getNode()));
-			String date = FORMAT.format(this.date); // here
-			{
-				int n = 0;
-				for (String d : date.split(" ")) {
-					short s = new Short(d);
-					if (n == 1) {
-						s--;
-					}
-					os.writeShort(FtnTools.revShort(s));
-					n++;
-				}
-			}
-			os.write(new byte[] { 0, 0, 2, 0 });
-			os.writeShort(FtnTools.revShort(fromAddr.getNet()));
-			os.writeShort(FtnTools.revShort(toAddr.getNet()));
-			os.write(new byte[] { (byte) 255,
-					DefaultVersion.getSelf().getMajorVersion().byteValue() }); // prodcode
-																				// 19FF
-																				// ver
-																				// 1.0
-			os.write(FtnTools.substr(password, 8));
-			for (int i = password.length(); i < 8; i++) {
-				os.write(0);
-			}
-			os.writeShort(FtnTools.revShort(fromAddr.getZone()));
-			os.writeShort(FtnTools.revShort(toAddr.getZone()));
-			os.write(new byte[] { 0, 0, 0, 1, 19,
-					DefaultVersion.getSelf().getMinorVersion().byteValue(), 1,
-					0 });// prodcode 19FF
-			// ver 1.5
-			os.writeShort(FtnTools.revShort(fromAddr.getZone()));
-			os.writeShort(FtnTools.revShort(toAddr.getZone()));
-			os.writeShort(FtnTools.revShort(fromAddr.getPoint()));
-			os.writeShort(FtnTools.revShort(toAddr.getPoint()));
-			os.write(new byte[] { 0, 0, 0, 0 });
+			enc.writeTo(fos);
 		} catch (IOException e) {
 			//
 		}
 	}
 
+	private void encode(FtnEncoder enc) {
+		enc.writeShort(fromAddr.getNode());
+		enc.writeShort(toAddr.getNode());
+		enc.writePktDate(date);
+		enc.write(new byte[] { 0, 0, 2, 0 });
+		enc.writeShort(fromAddr.getNet());
+		enc.writeShort(toAddr.getNet());
+		enc.write(new byte[] { (byte) 255,
+				DefaultVersion.getSelf().getMajorVersion().byteValue() }); // prodcode
+																			// 19FF
+																			// ver
+																			// 1.0
+		int start = enc.size();
+		enc.write(password, 8);
+		for (int i = enc.size() - start; i < 8; i++) {
+			enc.write(0);
+		}
+		enc.writeShort(fromAddr.getZone());
+		enc.writeShort(toAddr.getZone());
+		enc.write(new byte[] { 0, 0, 0, 1, 19,
+				DefaultVersion.getSelf().getMinorVersion().byteValue(), 1, 0 });// prodcode
+																					// 19FF
+		// ver 1.5
+		enc.writeShort(fromAddr.getZone());
+		enc.writeShort(toAddr.getZone());
+		enc.writeShort(fromAddr.getPoint());
+		enc.writeShort(toAddr.getPoint());
+		enc.write(new byte[] { 0, 0, 0, 0 });
+	}
+
 	public void finalz(OutputStream fos) {
 		try {
 			fos.write(new byte[] { 0, 0 });
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.types;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Буфер для разбора сообщения из пакета, один на поток. Строки до \0
+ * читаются блоками, если поток умеет mark/reset ( лишнее возвращается в
+ * поток ), иначе побайтно
+ * 
+ * @author agent
+ * 
+ */
+final class MessageBuffer {
+	private static final int CHUNK = 8192;
+	private static final ThreadLocal<MessageBuffer> local = new ThreadLocal<MessageBuffer>() {
+		@Override
+		protected MessageBuffer initialValue() {
+			return new MessageBuffer();
+		}
+	};
+	byte[] data = new byte[CHUNK];
+	int length;
+
+	static MessageBuffer get() {
+		MessageBuffer ret = local.get();
+		ret.length = 0;
+		if (ret.data.length > 64 * CHUNK) {
+			// после огромного письма не держим память
+			ret.data = new byte[CHUNK];
+		}
+		return ret;
+	}
+
+	private void ensure(int free) {
+		if (length + free > data.length) {
+			data = Arrays.copyOf(data, Math.max(data.length * 2, length + free));
+		}
+	}
+
+	/**
+	 * Прочитать ровно len байт
+	 * 
+	 * @return смещение прочитанного в data
+	 */
+	int readFully(InputStream is, int len) throws IOException {
+		ensure(len);
+		int start = length;
+		while (length < start + len) {
+			int n = is.read(data, length, start + len - length);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			length += n;
+		}
+		return start;
+	}
+
+	/**
+	 * Прочитать строку до \0 ( сам \0 читается, но в буфер не попадает )
+	 * 
+	 * @return смещение строки в data, конец - length
+	 */
+	int readUntilNull(InputStream is) throws IOException {
+		int start = length;
+		if (!is.markSupported()) {
+			int b;
+			while ((b = is.read()) != 0) {
+				if (b < 0) {
+					throw new EOFException();
+				}
+				ensure(1);
+				data[length++] = (byte) b;
+			}
+			return start;
+		}
+		while (true) {
+			ensure(CHUNK);
+			is.mark(CHUNK);
+			int n = is.read(data, length, CHUNK);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			for (int i = length, end = length + n; i < end; i++) {
+				if (data[i] == 0) {
+					// вернем в поток то, что после \0
+					is.reset();
+					long skip = i - length + 1;
+					while (skip > 0) {
+						long k = is.skip(skip);
+						if (k <= 0) {
+							throw new EOFException();
+						}
+						skip -= k;
+					}
+					length = i;
+					return start;
+				}
+			}
+			length += n;
+		}
+	}
+}
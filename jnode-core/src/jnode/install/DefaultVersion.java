@@ -38,7 +38,7 @@ public class DefaultVersion extends Version {
 
 	private DefaultVersion() {
 		setMajorVersion(1L);
-		setMinorVersion(5L);
+		setMinorVersion(8L);
 		setInstalledAt(new Date());
 	}
 
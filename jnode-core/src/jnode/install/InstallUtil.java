@@ -30,6 +30,10 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.UpdateBuilder;
 import com.j256.ormlite.table.TableUtils;
 
 import jnode.core.FileUtils;
@@ -45,6 +49,9 @@ import jnode.dto.Rewrite.Type;
 import jnode.dto.Robot;
 import jnode.dto.Version;
 import jnode.ftn.FtnTools;
+import jnode.ftn.tosser.FtnTosser;
+import jnode.ftn.types.Ftn2DPacked;
+import jnode.ftn.types.Ftn2DSet;
 import jnode.ftn.types.FtnAddress;
 import jnode.install.support.Dupe_1_4;
 import jnode.install.support.LinkOption_1_1;
@@ -73,6 +80,72 @@ public class InstallUtil {
 			logger.l1("You have installed " + ver.toString());
 			checkForLastVersion(ver);
 		}
+		if (MainHandler.getCurrentInstance().getBooleanProperty(
+				FtnTosser.TOSSER_PACKED_SEENBY, false)) {
+			Thread packer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					packSeenBy();
+				}
+			}, "SeenByPacker");
+			packer.setDaemon(true);
+			packer.setPriority(Thread.MIN_PRIORITY);
+			packer.start();
+		}
+	}
+
+	/**
+	 * Перевод SEEN-BY и PATH уже лежащих писем в упакованный вид, порциями.
+	 * Читаются и пишутся только эти колонки - тоссер в это время работает.
+	 * При ошибке базы перевод останавливается и продолжится при следующем
+	 * запуске
+	 */
+	public static void packSeenBy() {
+		long lastid = 0;
+		int cnt = 0;
+		try {
+			Dao<Echomail, Long> dao = DaoManager.createDao(
+					ORMManager.getSource(), Echomail.class);
+			List<Echomail> mail;
+			do {
+				QueryBuilder<Echomail, Long> qb = dao.queryBuilder();
+				qb.selectColumns("id", "seen_by", "path").orderBy("id", true)
+						.limit(1000L).where().isNull("seen_by_packed").and()
+						.gt("id", lastid);
+				mail = qb.query();
+				for (Echomail m : mail) {
+					lastid = m.getId();
+					byte[] seenBy;
+					byte[] path;
+					try {
+						seenBy = Ftn2DPacked.pack(Ftn2DSet.parse(m.getSeenBy()));
+						path = Ftn2DPacked.pack(FtnTools.read2D(m.getPath()));
+					} catch (IllegalArgumentException e) {
+						logger.l3("Echomail " + lastid + " left unpacked: "
+								+ e.getMessage());
+						continue;
+					}
+					UpdateBuilder<Echomail, Long> ub = dao.updateBuilder();
+					ub.updateColumnValue("seen_by_packed", seenBy);
+					ub.updateColumnValue("path_packed", path);
+					ub.updateColumnValue("seen_by", null);
+					ub.updateColumnValue("path", null);
+					ub.where().idEq(m.getId());
+					ub.update();
+					cnt++;
+				}
+				if (!mail.isEmpty()) {
+					logger.l4("SEEN-BY and PATH packed up to echomail #"
+							+ lastid);
+				}
+			} while (!mail.isEmpty());
+		} catch (Exception e) {
+			logger.l1("Packing SEEN-BY and PATH stopped at echomail #"
+					+ lastid + ", will continue on next start", e);
+		}
+		if (cnt > 0) {
+			logger.l2("SEEN-BY and PATH packed for " + cnt + " echomails");
+		}
 	}
 
 	private void doInstall() {
@@ -353,6 +426,44 @@ public class InstallUtil {
 				logger.l1("Exception while updating to 1.5", e);
 			}
 		}
+		if (ver.equals("1.5")) {
+			// то, что уже лежит в echomailawait, будет отправлено как раньше
+			execQuery("ALTER TABLE subscription ADD COLUMN lastmail_id BIGINT NOT NULL DEFAULT 0;");
+			execQuery("UPDATE subscription SET lastmail_id = (SELECT COALESCE(MAX(id), 0) FROM echomail);");
+			// по курсорам сообщение не уходит обратно линку, от которого пришло
+			execQuery("ALTER TABLE echomail ADD COLUMN source_link_id BIGINT;");
+			ver.setMinorVersion(6L);
+			ver.setInstalledAt(new Date());
+			ORMManager.get(Version.class).save(ver);
+			logger.l1(String.format("Upgraded to %s", ver.toString()));
+		}
+		if (ver.equals("1.6")) {
+			// crc старых файлов посчитается при первой отправке
+			execQuery("ALTER TABLE filemail ADD COLUMN file_crc32 BIGINT;");
+			execQuery("ALTER TABLE filemail ADD COLUMN file_size BIGINT;");
+			execQuery("ALTER TABLE filemail ADD COLUMN file_mtime BIGINT;");
+			ver.setMinorVersion(7L);
+			ver.setInstalledAt(new Date());
+			ORMManager.get(Version.class).save(ver);
+			logger.l1(String.format("Upgraded to %s", ver.toString()));
+		}
+		if (ver.equals("1.7")) {
+			try {
+				String blob = "Postgres".equals(ORMManager.getSource()
+						.getDatabaseType().getDatabaseName()) ? "BYTEA"
+						: "BLOB";
+				execQuery("ALTER TABLE echomail ADD COLUMN seen_by_packed "
+						+ blob + ";");
+				execQuery("ALTER TABLE echomail ADD COLUMN path_packed " + blob
+						+ ";");
+				ver.setMinorVersion(8L);
+				ver.setInstalledAt(new Date());
+				ORMManager.get(Version.class).save(ver);
+				logger.l1(String.format("Upgraded to %s", ver.toString()));
+			} catch (Exception e) {
+				logger.l1("Exception while updating to 1.8", e);
+			}
+		}
 	}
 
     private void runCustomScript() throws IOException {
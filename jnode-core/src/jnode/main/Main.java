@@ -25,6 +25,7 @@ import jnode.dto.*;
 import jnode.event.Notifier;
 import jnode.event.SharedModuleEvent;
 import jnode.ftn.FtnTools;
+import jnode.ftn.cache.DupeIndex;
 import jnode.install.GUIConfigurator;
 import jnode.install.InstallUtil;
 import jnode.jscript.JscriptExecutor;
@@ -56,6 +57,9 @@ public class Main {
 	private static final String MODULES = "modules";
 	private static final String LOGFILE = "log.file";
 	private static final String LOGZIPPATH = "log.zippath";
+	private static final String TOSSER_WATCH = "tosser.watch";
+	private static final String TOSSER_SCAN_PERIOD = "tosser.scan_period";
+	private static final String TOSSER_SPOOL = "tosser.spool";
 
 	public static void main(String[] args) {
 		System.setProperty(LocalLog.LOCAL_LOG_LEVEL_PROPERTY, "INFO");
@@ -119,6 +123,7 @@ public class Main {
         ORMManager.get(Version.class);
 
         // eof
+		DupeIndex.getSelf();
 		ThreadPool.execute(new BinkpAsyncServer());
 
 		ThreadPool.execute(new BinkpAsyncClientPool());
@@ -129,8 +134,33 @@ public class Main {
 						.getIntegerProperty(POLL_DELAY, 0) * 1000, MainHandler
 						.getCurrentInstance()
 						.getIntegerProperty(POLL_PERIOD, 0) * 1000);
+		long tossPeriod = 10000;
+		if (MainHandler.getCurrentInstance().getBooleanProperty(TOSSER_WATCH,
+				true)) {
+			try {
+				Thread watcher = new Thread(new InboundWatcher(
+						FtnTools.getInbound()), "InboundWatcher");
+				watcher.setDaemon(true);
+				watcher.start();
+				logger.l4("Started InboundWatcher");
+				// inbound просматривается только на всякий случай
+				tossPeriod = MainHandler.getCurrentInstance()
+						.getIntegerProperty(TOSSER_SCAN_PERIOD, 60) * 1000L;
+			} catch (IOException e) {
+				logger.l2("Unable to watch inbound, polling it", e);
+			}
+		}
+		if (MainHandler.getCurrentInstance().getBooleanProperty(
+				TOSSER_SPOOL, true)) {
+			OutboundBuilder builder = OutboundBuilder.getSelf();
+			builder.setPeriod(MainHandler.getCurrentInstance()
+					.getIntegerProperty(TOSSER_SCAN_PERIOD, 60) * 1000L);
+			Thread thread = new Thread(builder, "OutboundBuilder");
+			thread.setDaemon(true);
+			thread.start();
+		}
 		logger.l4("Started TosserTask");
-		mainTimer.schedule(new TosserTask(), 10000, 10000);
+		mainTimer.schedule(new TosserTask(), 10000, tossPeriod);
 		logger.l4("Started PollQueueTask");
 		mainTimer.schedule(new PollQueueTask(), 10000, 10000);
 		logger.l4("Started StatPoster");
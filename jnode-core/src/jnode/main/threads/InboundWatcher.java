@@ -0,0 +1,104 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.main.threads;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import jnode.ftn.tosser.FtnTosser;
+import jnode.logger.Logger;
+
+/**
+ * Следит за inbound и запускает тоссер, как только там появляются пакеты,
+ * бандлы, tic или ?lo. Тоссер запускается, когда файл перестал меняться
+ * 
+ * @author agent
+ * 
+ */
+public class InboundWatcher implements Runnable {
+	private static final Logger logger = Logger.getLogger(InboundWatcher.class);
+	/** сколько ждем тишины перед разбором, мс */
+	private static final long QUIET_DELAY = 250;
+	private final WatchService watcher;
+	private final Path inbound;
+
+	public InboundWatcher(String inbound) throws IOException {
+		this.inbound = Paths.get(inbound);
+		this.watcher = FileSystems.getDefault().newWatchService();
+		this.inbound.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+	}
+
+	@Override
+	public void run() {
+		logger.l4("Watching inbound " + inbound);
+		try {
+			boolean pending = false;
+			while (true) {
+				WatchKey key = (pending) ? watcher.poll(QUIET_DELAY,
+						TimeUnit.MILLISECONDS) : watcher.take();
+				if (key == null) {
+					// файлы перестали меняться
+					try {
+						pending = !TosserQueue.getInstanse().toss();
+					} catch (RuntimeException e) {
+						logger.l1("Error while tossing", e);
+						pending = false;
+					}
+					continue;
+				}
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW) {
+						pending = true;
+					} else {
+						Path name = (Path) event.context();
+						if (FtnTosser.isTossable(name.toString())) {
+							pending = true;
+						}
+					}
+				}
+				if (!key.reset()) {
+					logger.l2("Inbound " + inbound
+							+ " is not watchable anymore");
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			logger.l4("Inbound watcher closed");
+		}
+		try {
+			watcher.close();
+		} catch (IOException ignore) {
+		}
+	}
+}
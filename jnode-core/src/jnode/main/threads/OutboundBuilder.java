@@ -0,0 +1,146 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.main.threads;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import jnode.dto.Link;
+import jnode.dto.LinkOption;
+import jnode.ftn.EchomailCursors;
+import jnode.ftn.FtnTools;
+import jnode.logger.Logger;
+import jnode.orm.ORMManager;
+
+/**
+ * Фоновая сборка исходящего эхомейла: после тоссинга ( и раз в период для
+ * линков, у которых есть несобранные письма ) ожидающие письма упаковываются
+ * в спул линка, сессии только отдают готовые файлы. Линк с crashechomail после сборки ставится в
+ * очередь опроса, остальные ждут своей сессии
+ * 
+ * @author agent
+ * 
+ */
+public class OutboundBuilder implements Runnable {
+	private static final Logger logger = Logger
+			.getLogger(OutboundBuilder.class);
+	private static OutboundBuilder self;
+	private final Set<Long> queue = new LinkedHashSet<>();
+	private volatile boolean running;
+	private long period = 60000;
+
+	public static synchronized OutboundBuilder getSelf() {
+		if (self == null) {
+			self = new OutboundBuilder();
+		}
+		return self;
+	}
+
+	private OutboundBuilder() {
+	}
+
+	/**
+	 * Период полной пересборки
+	 * 
+	 * @param period
+	 *            мс
+	 */
+	public void setPeriod(long period) {
+		this.period = period;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Для линка появилась почта
+	 * 
+	 * @param link
+	 */
+	public void schedule(Link link) {
+		if (link.getId() == null) {
+			return;
+		}
+		synchronized (queue) {
+			if (queue.add(link.getId())) {
+				queue.notify();
+			}
+		}
+	}
+
+	private Long next() throws InterruptedException {
+		synchronized (queue) {
+			if (queue.isEmpty()) {
+				queue.wait(period);
+			}
+			if (!queue.isEmpty()) {
+				return poll();
+			}
+		}
+		// на всякий случай - почта, пришедшая не через тоссер ( перескан,
+		// пауза ); линки с курсорами на месте не трогаем
+		Set<Long> waiting = EchomailCursors.getWaitingLinks();
+		synchronized (queue) {
+			queue.addAll(waiting);
+			return (queue.isEmpty()) ? null : poll();
+		}
+	}
+
+	private Long poll() {
+		Long id = queue.iterator().next();
+		queue.remove(id);
+		return id;
+	}
+
+	@Override
+	public void run() {
+		running = true;
+		logger.l4("Outbound builder started");
+		try {
+			while (true) {
+				Long id = next();
+				if (id == null) {
+					continue;
+				}
+				try {
+					Link link = ORMManager.get(Link.class).getById(id);
+					if (link == null) {
+						continue;
+					}
+					int bundles = TosserQueue.getInstanse().spool(link);
+					if (bundles > 0
+							&& FtnTools.getOptionBooleanDefFalse(link,
+									LinkOption.BOOLEAN_CRASH_ECHOMAIL)) {
+						PollQueue.getSelf().add(link);
+					}
+				} catch (RuntimeException e) {
+					logger.l1("Error while building outbound for link #" + id,
+							e);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			running = false;
+		}
+	}
+}
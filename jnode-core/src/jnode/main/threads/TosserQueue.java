@@ -20,6 +20,7 @@
 
 package jnode.main.threads;
 
+import java.io.File;
 import java.util.List;
 
 import jnode.dto.Link;
@@ -43,20 +44,70 @@ public class TosserQueue {
 		return self;
 	}
 
-	public void toss() {
+	/**
+	 * Разбор inbound, если он уже не идет
+	 * 
+	 * @return false - тоссер был занят
+	 */
+	public boolean toss() {
 		if (!tosser.isRunning()) {
 			synchronized (tosser) {
 				tosser.tossInboundDirectory();
 				tosser.end();
 			}
+			return true;
 		}
+		return false;
+	}
+
+	/**
+	 * Перенос принятого пакета или бандла в inbound и его разбор под одной
+	 * блокировкой
+	 * 
+	 * @param name
+	 *            имя файла у линка
+	 * @param file
+	 * @param extension
+	 *            pkt или bun
+	 * @return false - файл не перенесен
+	 */
+	public boolean toss(String name, File file, String extension) {
+		synchronized (tosser) {
+			File journal = FtnTosser.moveToJournal(name, file, extension);
+			if (journal == null) {
+				return false;
+			}
+			tosser.tossJournal(journal);
+			tosser.end();
+			return true;
+		}
+	}
+
+	/**
+	 * Собрать ожидающий эхомейл линка в спул
+	 * 
+	 * @param link
+	 * @return сколько бандлов добавлено
+	 */
+	public int spool(Link link) {
+		return tosser.spoolEchomail(link);
 	}
 
 	public List<Message> getMessages(Link link) {
-		return tosser.getMessages2(new FtnAddress(link.getLinkAddress()));
+		return tosser.getMessages2(FtnAddress.valueOf(link.getLinkAddress()));
 	}
 
 	public List<Message> getMessages(FtnAddress address) {
 		return tosser.getMessages2(address);
 	}
+
+	/**
+	 * @param address
+	 * @param maxBytes
+	 *            сколько байт из спула отдать ( 0 - все )
+	 * @return
+	 */
+	public List<Message> getMessages(FtnAddress address, long maxBytes) {
+		return tosser.getMessages2(address, maxBytes);
+	}
 }
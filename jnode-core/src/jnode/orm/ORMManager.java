@@ -21,8 +21,8 @@
 package jnode.orm;
 
 import java.sql.SQLException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
 import com.j256.ormlite.support.ConnectionSource;
@@ -48,20 +48,31 @@ public enum ORMManager {
 	public final static String JDBC_PASS = "jdbc.pass";
 
 	private static final Logger logger = Logger.getLogger(ORMManager.class);
-	private Map<Class<?>, GenericDAO<?>> genericDAOMap = new HashMap<>();
+	private Map<Class<?>, GenericDAO<?>> genericDAOMap = new ConcurrentHashMap<>();
 	private ConnectionSource source;
 
 	public void start() throws Exception {
 		try {
-		source = new JdbcConnectionSource(MainHandler.getCurrentInstance()
-				.getProperty(JDBC_URL, ""), MainHandler.getCurrentInstance()
-				.getProperty(JDBC_USER, ""), MainHandler.getCurrentInstance()
-				.getProperty(JDBC_PASS, ""));
+			source = openSource();
 		} catch(SQLException e) {
 			throw new Exception("Exception in source creation", e);
 		}
 	}
 
+	/**
+	 * Отдельное соединение с базой - для тех, кому нужны свои транзакции.
+	 * Закрывать самостоятельно
+	 * 
+	 * @return
+	 * @throws SQLException
+	 */
+	public static JdbcConnectionSource openSource() throws SQLException {
+		return new JdbcConnectionSource(MainHandler.getCurrentInstance()
+				.getProperty(JDBC_URL, ""), MainHandler.getCurrentInstance()
+				.getProperty(JDBC_USER, ""), MainHandler.getCurrentInstance()
+				.getProperty(JDBC_PASS, ""));
+	}
+
 	@Deprecated
 	public GenericDAO<Dupe_1_4> getDupeDAO() {
 		return get(Dupe_1_4.class);
@@ -160,7 +171,15 @@ public enum ORMManager {
 	@SuppressWarnings("unchecked")
 	public static <T> GenericDAO<T> get(final Class<? extends T> clazz) {
 		GenericDAO<T> ret = (GenericDAO<T>) INSTANSE.genericDAOMap.get(clazz);
-		if (ret == null) {
+		if (ret != null) {
+			return ret;
+		}
+		// DAO создается ( и таблица тоже ) только в одном потоке
+		synchronized (INSTANSE) {
+			ret = (GenericDAO<T>) INSTANSE.genericDAOMap.get(clazz);
+			if (ret != null) {
+				return ret;
+			}
 			try {
 				ret = new GenericDAO<T>() {
 
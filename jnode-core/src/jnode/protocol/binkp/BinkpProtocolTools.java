@@ -28,7 +28,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -120,17 +119,30 @@ public class BinkpProtocolTools {
 		return null;
 	}
 
-	public static int write(BinkpFrame frame, SocketChannel socket) {
-		if (frame != null) {
-			try {
-				socket.write(ByteBuffer.wrap(frame.getBytes()));
-				return 1;
-			} catch (IOException e) {
-				e.printStackTrace();
-				return 0;
-			}
+	/**
+	 * Записать в неблокирующий канал сколько влезет: заголовок и данные одним
+	 * gathering write. Недописанный фрейм дописывается следующим вызовом (
+	 * на следующем OP_WRITE ), буфер возвращается в пул, когда фрейм ушел
+	 * целиком
+	 * 
+	 * @param frame
+	 * @param socket
+	 * @return true - фрейм записан целиком
+	 * @throws IOException
+	 */
+	public static boolean write(BinkpFrame frame, SocketChannel socket)
+			throws IOException {
+		try {
+			socket.write(frame.getBuffers());
+		} catch (IOException e) {
+			frame.release();
+			throw e;
+		}
+		if (frame.isSent()) {
+			frame.release();
+			return true;
 		}
-		return 0;
+		return false;
 	}
 
 	public static boolean messageEquals(Message message, String arg) {
@@ -163,6 +175,9 @@ public class BinkpProtocolTools {
 
 	public static int forwardToTossing(Message message, File file,
 			OutputStream os) {
+		if (FtnTosser.tossReceived(message, file)) {
+			return 0;
+		}
 		InputStream is = null;
 		try {
 			is = (file != null) ? new FileInputStream(file)
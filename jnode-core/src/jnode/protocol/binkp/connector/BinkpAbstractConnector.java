@@ -40,6 +40,10 @@ import jnode.protocol.binkp.types.BinkpFrame;
 import jnode.protocol.io.Message;
 
 import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
@@ -73,6 +77,8 @@ public abstract class BinkpAbstractConnector implements Runnable {
 	private static final String BINKP_TEMP = "binkp.temp";
 	private static final String BINKP_SIZE = "binkp.size";
 	private static final String BINKP_TIMEOUT = "binkp.timeout";
+	private static final String BINKP_SESSION_SIZE = "binkp.session_size";
+	private static final String BINKP_SESSION_TIME = "binkp.session_time";
 	protected static Integer staticMemMaxSize = null;
 	protected static Integer staticBufMaxSize = null;
 	protected static File staticTempDirectory = null;
@@ -119,6 +125,7 @@ public abstract class BinkpAbstractConnector implements Runnable {
 	// current messages 'to send' before EOF
 	protected ArrayList<Message> messages = new ArrayList<>();
 	protected InputStream currentInputStream;
+	protected ReadableByteChannel currentChannel;
 	protected int messages_index = 0;
 	// protected transferringMessage = null;
 	private Message receivingMessage = null;
@@ -154,15 +161,34 @@ public abstract class BinkpAbstractConnector implements Runnable {
 				+ " server connection");
 	}
 
-	protected void error(String text) {
+	/**
+	 * Очистить очередь фреймов. Начатый фрейм остается - его надо дописать,
+	 * иначе поток развалится; буферы остальных возвращаются в пул
+	 */
+	protected void clearFrames() {
+		BinkpFrame started = null;
+		for (BinkpFrame frame : frames) {
+			if (started == null && frame.isStarted()) {
+				started = frame;
+			} else {
+				frame.release();
+			}
+		}
 		frames.clear();
+		if (started != null) {
+			frames.addLast(started);
+		}
+	}
+
+	protected void error(String text) {
+		clearFrames();
 		frames.addLast(new BinkpFrame(BinkpCommand.M_ERR, text));
 		logger.l2("Local error: " + text);
 		connectionState = STATE_ERROR;
 	}
 
 	protected void error(String text, Exception e) {
-		frames.clear();
+		clearFrames();
 		frames.addLast(new BinkpFrame(BinkpCommand.M_ERR, text));
 		logger.l2("Local error: " + text);
 		connectionState = STATE_ERROR;
@@ -525,7 +551,7 @@ public abstract class BinkpAbstractConnector implements Runnable {
 	}
 
 	protected void busy(String string) {
-		frames.clear();
+		clearFrames();
 		frames.addLast(new BinkpFrame(BinkpCommand.M_BSY, string));
 		connectionState = STATE_END;
 		logger.l3("Local busy: " + string);
@@ -588,16 +614,29 @@ public abstract class BinkpAbstractConnector implements Runnable {
 			return;
 		}
 		if (messages.size() > 0) {
-			BinkpFrame frame = readFrame();
-			if (frame != null) {
-				frames.addLast(frame);
-			} else { // error, null
+			// следующий кусок файла читаем, только когда очередь ушла в
+			// сокет - иначе на медленном линке весь файл окажется в буферах
+			if (frames.isEmpty()) {
+				BinkpFrame frame = readFrame();
+				if (frame != null) {
+					frames.addLast(frame);
+				} else { // error, null
+				}
 			}
 			return;
 
 		}
-		for (FtnAddress a : foreignAddress) {
-			messages.addAll(TosserQueue.getInstanse().getMessages(a));
+		long budget = getSessionBudget();
+		if (budget >= 0) {
+			for (FtnAddress a : foreignAddress) {
+				for (Message m : TosserQueue.getInstanse().getMessages(a,
+						budget)) {
+					messages.add(m);
+					if (budget > 0) {
+						budget = Math.max(1, budget - m.getMessageLength());
+					}
+				}
+			}
 		}
 		if (messages.isEmpty()) {
 			if (!flag_leob) {
@@ -611,6 +650,44 @@ public abstract class BinkpAbstractConnector implements Runnable {
 		}
 	}
 
+	/**
+	 * Сколько байт ещё можно отдать линку за эту сессию: опции линка
+	 * sessionsize ( Кб ) и sessiontime ( секунд ), по умолчанию
+	 * binkp.session_size и binkp.session_time
+	 * 
+	 * @return 0 - без ограничений, -1 - бюджет исчерпан
+	 */
+	private long getSessionBudget() {
+		long size = (foreignLink != null) ? FtnTools.getOptionLong(
+				foreignLink, LinkOption.LONG_SESSION_SIZE) : 0;
+		if (size <= 0) {
+			size = MainHandler.getCurrentInstance().getIntegerProperty(
+					BINKP_SESSION_SIZE, 0);
+		}
+		long seconds = (foreignLink != null) ? FtnTools.getOptionLong(
+				foreignLink, LinkOption.LONG_SESSION_TIME) : 0;
+		if (seconds <= 0) {
+			seconds = MainHandler.getCurrentInstance().getIntegerProperty(
+					BINKP_SESSION_TIME, 0);
+		}
+		if (seconds > 0 && time > 0
+				&& new Date().getTime() - time >= seconds * 1000) {
+			logger.l3(String.format("Session time limit (%d s) reached",
+					seconds));
+			return -1;
+		}
+		if (size > 0) {
+			long left = size * 1024 - total_sent_bytes;
+			if (left <= 0) {
+				logger.l3(String.format("Session size limit (%d Kb) reached",
+						size));
+				return -1;
+			}
+			return left;
+		}
+		return 0;
+	}
+
 	protected void finish(String reason) {
 		time = new Date().getTime() - time;
 		logger.l4("Finishing: " + reason);
@@ -674,17 +751,19 @@ public abstract class BinkpAbstractConnector implements Runnable {
 
 	protected BinkpFrame readFrame() {
 		if (currentInputStream != null) {
+			ByteBuffer buf = BinkpFrame.allocate(staticBufMaxSize);
 			try {
-				byte[] buf = new byte[staticBufMaxSize];
-				int n = currentInputStream.read(buf);
-				sent_bytes += n;
+				int n = currentChannel.read(buf);
 				if (n > 0) {
 					sent_bytes += n;
 					total_sent_bytes += n;
 					addTimeout();
-					return new BinkpFrame(buf, n);
+					((Buffer) buf).flip();
+					return new BinkpFrame(buf);
 				} else {
-					currentInputStream.close();
+					BinkpFrame.free(buf);
+					currentChannel.close();
+					currentChannel = null;
 					currentInputStream = null;
 					logger.l5("received EOF on current IO");
 					messages_index++;
@@ -693,6 +772,7 @@ public abstract class BinkpAbstractConnector implements Runnable {
 					}
 				}
 			} catch (IOException e) {
+				BinkpFrame.free(buf);
 				error("Error reading file", e);
 			}
 		}
@@ -723,6 +803,9 @@ public abstract class BinkpAbstractConnector implements Runnable {
 				currentInputStream = null;
 			}
 			currentInputStream = message.getInputStream();
+			// файлы читаем прямо в буферы фреймов
+			currentChannel = (currentInputStream instanceof FileInputStream) ? ((FileInputStream) currentInputStream)
+					.getChannel() : Channels.newChannel(currentInputStream);
 		} catch (IOException e) {
 			error("IOException", e);
 		}
@@ -110,13 +110,19 @@ public class BinkpAsyncConnector extends BinkpAbstractConnector {
 							}
 							if (key.isWritable()) {
 								checkForMessages();
-								if (!frames.isEmpty()) {
-									BinkpFrame frame = frames.removeFirst();
-									logger.l5("Frame sent: " + frame
-											+ ", next " + frames.size()
-											+ " frames, total sent "
-											+ total_sent_bytes);
-									write(frame, channel);
+								BinkpFrame frame = frames.peekFirst();
+								if (frame != null) {
+									if (!frame.isStarted()) {
+										logger.l5("Frame sent: " + frame
+												+ ", next "
+												+ (frames.size() - 1)
+												+ " frames, total sent "
+												+ total_sent_bytes);
+									}
+									// недописанный фрейм остается первым
+									if (write(frame, channel)) {
+										frames.removeFirst();
+									}
 								}
 							}
 							if (!isConnected()) {
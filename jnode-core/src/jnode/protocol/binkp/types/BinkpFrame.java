@@ -20,6 +20,10 @@
 
 package jnode.protocol.binkp.types;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 /**
  * 
  * @author kreon
@@ -27,9 +31,45 @@ package jnode.protocol.binkp.types;
  */
 public class BinkpFrame {
 	private static final int MAX_SIZE = 32767;
+	private static final int POOL_SIZE = 64;
+	/**
+	 * Direct-буферы под данные файлов, общие для всех соединений
+	 */
+	private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
 	private BinkpCommand command;
 	private byte[] frame;
 	private String arg;
+	private ByteBuffer head;
+	private ByteBuffer data;
+	private ByteBuffer[] buffers;
+
+	/**
+	 * Взять буфер под данные фрейма из пула
+	 * 
+	 * @param size
+	 *            сколько байт будем читать, не больше 32767
+	 * @return
+	 */
+	public static ByteBuffer allocate(int size) {
+		ByteBuffer buffer = pool.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(MAX_SIZE);
+		}
+		((Buffer) buffer).clear();
+		((Buffer) buffer).limit(Math.min(size, MAX_SIZE));
+		return buffer;
+	}
+
+	/**
+	 * Вернуть буфер в пул
+	 * 
+	 * @param buffer
+	 */
+	public static void free(ByteBuffer buffer) {
+		if (buffer != null && buffer.isDirect() && pool.size() < POOL_SIZE) {
+			pool.offer(buffer);
+		}
+	}
 
 	public BinkpFrame(BinkpCommand command) {
 		this(command, null);
@@ -59,6 +99,22 @@ public class BinkpFrame {
 		init();
 	}
 
+	/**
+	 * Фрейм данных поверх буфера из {@link #allocate(int)}, без копирования.
+	 * Буфер возвращается в пул в {@link #release()}
+	 * 
+	 * @param data
+	 *            готовый к чтению ( flip() )
+	 */
+	public BinkpFrame(ByteBuffer data) {
+		this.data = data;
+		int datalen = data.remaining() & 0x7fff;
+		head = ByteBuffer.allocate(2);
+		head.put((byte) ((datalen >> 8) & 0xff));
+		head.put((byte) (datalen & 0xff));
+		((Buffer) head).flip();
+	}
+
 	public BinkpCommand getCommand() {
 		return command;
 	}
@@ -82,13 +138,77 @@ public class BinkpFrame {
 	}
 
 	public byte[] getBytes() {
+		if (data != null) {
+			byte[] bytes = new byte[data.remaining() + 2];
+			head.get(bytes, 0, 2);
+			data.get(bytes, 2, bytes.length - 2);
+			release();
+			frame = bytes;
+		}
 		return (frame != null) ? frame : new byte[0];
 	}
 
+	/**
+	 * Фрейм для gathering write: заголовок и данные. Буферы одни и те же до
+	 * {@link #release()}, так что недописанный фрейм дописывается с места
+	 * остановки
+	 * 
+	 * @return
+	 */
+	public ByteBuffer[] getBuffers() {
+		if (buffers == null) {
+			buffers = (data != null) ? new ByteBuffer[] { head, data }
+					: new ByteBuffer[] { ByteBuffer.wrap(getBytes()) };
+		}
+		return buffers;
+	}
+
+	/**
+	 * Часть фрейма уже ушла в сокет
+	 * 
+	 * @return
+	 */
+	public boolean isStarted() {
+		return buffers != null && buffers[0].position() > 0;
+	}
+
+	/**
+	 * Фрейм ушел в сокет целиком
+	 * 
+	 * @return
+	 */
+	public boolean isSent() {
+		return buffers != null && !buffers[buffers.length - 1].hasRemaining();
+	}
+
+	/**
+	 * Отдать буфер данных обратно в пул; после этого фрейм пуст
+	 */
+	public void release() {
+		if (data != null) {
+			free(data);
+			data = null;
+			head = null;
+			buffers = null;
+		}
+	}
+
 	private String displayFrame() {
-		byte[] d = frame;
 		StringBuilder sb = new StringBuilder();
 		sb.append("length = ");
+		if (data != null) {
+			byte[] d = new byte[Math.min(data.remaining(), 8) + 2];
+			d[0] = head.get(head.position());
+			d[1] = head.get(head.position() + 1);
+			for (int i = 2; i < d.length; i++) {
+				d[i] = data.get(data.position() + i - 2);
+			}
+			sb.append(data.remaining() + 2);
+			sb.append(", ");
+			sb.append(DisplayByteArrayHelper.bytesToHex(d, 10));
+			return sb.toString();
+		}
+		byte[] d = getBytes();
 		sb.append(d.length);
 		sb.append(", ");
 		sb.append(DisplayByteArrayHelper.bytesToHex(d, 10));
@@ -29,7 +29,9 @@ import java.util.regex.Pattern;
 import com.j256.ormlite.dao.GenericRawResults;
 
 import jnode.dto.*;
+import jnode.ftn.EchomailCursors;
 import jnode.ftn.FtnTools;
+import jnode.ftn.cache.SubscriptionCache;
 import jnode.ftn.types.FtnMessage;
 import jnode.orm.ORMManager;
 
@@ -312,7 +314,9 @@ public class AreaFix extends AbstractRobot {
 						sub = new Subscription();
 						sub.setArea(earea);
 						sub.setLink(link);
+						EchomailCursors.subscribe(sub);
 						ORMManager.get(Subscription.class).save(sub);
+						SubscriptionCache.getSelf().invalidate();
 						sb.append(" subscribed");
 					}
 				}
@@ -342,6 +346,7 @@ public class AreaFix extends AbstractRobot {
 				} else {
 					ORMManager.get(Subscription.class).delete("link_id", "=",
 							link, "echoarea_id", "=", earea);
+					SubscriptionCache.getSelf().invalidate();
 					sb.append(" unsubscribed");
 				}
 				sb.append('\n');
@@ -371,10 +376,9 @@ public class AreaFix extends AbstractRobot {
 					List<Echomail> mails = ORMManager.get(Echomail.class)
 							.getOrderLimitAnd(num, "id", false, "echoarea_id",
 									"=", earea);
-					for (int i = mails.size() - 1; i >= 0; --i) {
-						Echomail mail = mails.get(i);
-						ORMManager.get(EchomailAwaiting.class).save(
-								new EchomailAwaiting(link, mail));
+					if (!mails.isEmpty()) {
+						EchomailCursors.rescan(link, earea,
+								mails.get(mails.size() - 1).getId());
 					}
 					sb.append(" rescanned " + mails.size() + " messages");
 				}
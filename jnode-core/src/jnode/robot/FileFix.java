@@ -33,6 +33,7 @@ import jnode.dto.Filearea;
 import jnode.dto.Link;
 import jnode.dto.LinkOption;
 import jnode.ftn.FtnTools;
+import jnode.ftn.cache.SubscriptionCache;
 import jnode.ftn.types.FtnMessage;
 import jnode.orm.ORMManager;
 
@@ -228,6 +229,7 @@ public class FileFix extends AbstractRobot {
 						sub.setArea(earea);
 						sub.setLink(link);
 						ORMManager.get(FileSubscription.class).save(sub);
+						SubscriptionCache.getSelf().invalidate();
 						sb.append(" subscribed");
 					}
 				}
@@ -257,6 +259,7 @@ public class FileFix extends AbstractRobot {
 				} else {
 					ORMManager.get(FileSubscription.class).delete("link_id",
 							"=", link, "filearea_id", "=", earea);
+					SubscriptionCache.getSelf().invalidate();
 					sb.append(" unsubscribed");
 				}
 				sb.append('\n');
@@ -111,8 +111,8 @@ public class ConnectionStat implements IStatPoster, IEventHandler {
             @Override
             public int compare(ConnectionStatData.ConnectionStatDataElement arg0,
                                ConnectionStatData.ConnectionStatDataElement arg1) {
-                FtnAddress a1 = arg0.linkStr != null ? new FtnAddress(arg0.linkStr) : null;
-                FtnAddress a2 = arg1.linkStr != null ? new FtnAddress(arg1.linkStr) : null;
+                FtnAddress a1 = arg0.linkStr != null ? FtnAddress.valueOf(arg0.linkStr) : null;
+                FtnAddress a2 = arg1.linkStr != null ? FtnAddress.valueOf(arg1.linkStr) : null;
                 if (a1 == null && a2 != null) {
                     return 1;
                 } else if (a2 == null && a1 != null) {
@@ -134,7 +134,7 @@ public class ConnectionStat implements IStatPoster, IEventHandler {
         int bsT = 0;
         int brT = 0;
         for (ConnectionStatData.ConnectionStatDataElement element : elements) {
-            FtnAddress link = element.linkStr != null ? new FtnAddress(element.linkStr) : null;
+            FtnAddress link = element.linkStr != null ? FtnAddress.valueOf(element.linkStr) : null;
             String linkName = (link != null) ? link.toString()
                     : "Unknown";
             iOkT += element.incomingOk;
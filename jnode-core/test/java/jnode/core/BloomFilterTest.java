@@ -0,0 +1,69 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.core;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class BloomFilterTest {
+
+	@Test
+	public void testNoFalseNegatives() {
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		for (long i = 0; i < 10000; i++) {
+			filter.put(i * 7919);
+		}
+		for (long i = 0; i < 10000; i++) {
+			TestCase.assertTrue(filter.mightContain(i * 7919));
+		}
+		TestCase.assertFalse(filter.isFull());
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		for (long i = 0; i < 10000; i++) {
+			filter.put(i);
+		}
+		int positives = 0;
+		for (long i = 10000; i < 110000; i++) {
+			if (filter.mightContain(i)) {
+				positives++;
+			}
+		}
+		// 1% ожидаемо, 2% - с запасом
+		TestCase.assertTrue("fpp " + positives, positives < 2000);
+	}
+
+	@Test
+	public void testFull() {
+		BloomFilter filter = new BloomFilter(10, 0.01);
+		for (long i = 0; i < 11; i++) {
+			filter.put(i);
+		}
+		TestCase.assertTrue(filter.isFull());
+		TestCase.assertEquals(11, filter.getCount());
+	}
+}
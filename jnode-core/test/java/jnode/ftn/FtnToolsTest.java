@@ -20,11 +20,16 @@
 
 package jnode.ftn;
 
+import jnode.dto.Filemail;
 import jnode.ftn.types.Ftn2D;
 import junit.framework.TestCase;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
 
 /**
  * @author Kirill Temnenkov (kirill@temnenkov.com)
@@ -75,4 +80,31 @@ public class FtnToolsTest {
         TestCase.assertEquals(1, r.size());
         TestCase.assertEquals(new Ftn2D(5020,2141), r.get(0));
     }
+
+    @Test
+    public void testCrc32() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(data);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        File file = File.createTempFile("crc", ".bin");
+        try {
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write(data);
+            fos.close();
+            TestCase.assertEquals(crc.getValue(), FtnTools.crc32(file));
+
+            Filemail mail = new Filemail();
+            TestCase.assertEquals(crc.getValue(), FtnTools.getCrc32(mail, file));
+            TestCase.assertEquals(Long.valueOf(data.length), mail.getFilesize());
+            // файл не менялся - берется сохраненное
+            mail.setCrc32(42L);
+            TestCase.assertEquals(42L, FtnTools.getCrc32(mail, file));
+            // изменился - пересчитывается
+            mail.setMtime(mail.getMtime() - 1000);
+            TestCase.assertEquals(crc.getValue(), FtnTools.getCrc32(mail, file));
+        } finally {
+            file.delete();
+        }
+    }
 }
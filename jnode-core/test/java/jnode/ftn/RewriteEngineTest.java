@@ -0,0 +1,95 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn;
+
+import java.util.Arrays;
+
+import jnode.dto.Rewrite;
+import jnode.ftn.types.FtnAddress;
+import jnode.ftn.types.FtnMessage;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class RewriteEngineTest {
+	private static Rewrite rewrite(String ofa, String nfa, String nfn,
+			boolean last) {
+		Rewrite rewrite = new Rewrite();
+		rewrite.setType(Rewrite.Type.ECHOMAIL);
+		rewrite.setLast(last);
+		rewrite.setOrig_from_addr(ofa);
+		rewrite.setOrig_to_addr("*");
+		rewrite.setNew_from_addr(nfa);
+		rewrite.setNew_to_addr("*");
+		rewrite.setNew_from_name(nfn);
+		return rewrite;
+	}
+
+	private static FtnMessage message(String from) {
+		FtnMessage message = new FtnMessage();
+		message.setArea("TEST");
+		message.setFromAddr(new FtnAddress(from));
+		message.setToAddr(new FtnAddress("2:5020/841"));
+		message.setFromName("Sysop");
+		message.setToName("All");
+		message.setSubject("test");
+		message.setMsgid(from + " 12345678");
+		message.setText("\001MSGID: " + from + " 12345678\nhello\n"
+				+ "--- test\n * Origin: my (node) (" + from + ")\n");
+		return message;
+	}
+
+	@Test
+	public void testLiteralPrefix() {
+		TestCase.assertEquals("2:5020/", RewriteEngine.literalPrefix("^2:5020/.*"));
+		TestCase.assertEquals("2:5020/84", RewriteEngine.literalPrefix("2:5020/841?"));
+		TestCase.assertEquals("2:5020/841.", RewriteEngine.literalPrefix("2:5020/841\\.[0-9]+"));
+		TestCase.assertEquals("", RewriteEngine.literalPrefix("(?i)sysop"));
+		TestCase.assertEquals("", RewriteEngine.literalPrefix("2:5020/1|2:5030/1"));
+		TestCase.assertEquals("2:5020/1.1", RewriteEngine.literal("^2:5020/1\\.1$"));
+		TestCase.assertNull(RewriteEngine.literal("2:5020/1.1"));
+	}
+
+	@Test
+	public void testRewrite() {
+		RewriteEngine engine = new RewriteEngine(Arrays.asList(
+				rewrite("2:5020/1\\.1", "2:5020/841.1", "*", false),
+				rewrite("2:5020/84[0-9]\\..*", "*", "Point", true),
+				rewrite("*", "*", "Never", false)));
+
+		FtnMessage message = message("2:5020/1.1");
+		engine.process(message);
+		TestCase.assertEquals("2:5020/841.1", message.getFromAddr().toString());
+		TestCase.assertEquals("2:5020/841.1 12345678", message.getMsgid());
+		TestCase.assertEquals("\001MSGID: 2:5020/841.1 12345678\nhello\n"
+				+ "--- test\n * Origin: my (node) (2:5020/841.1)\n",
+				message.getText());
+		TestCase.assertEquals("Point", message.getFromName());
+
+		message = message("2:5020/2");
+		engine.process(message);
+		TestCase.assertEquals("2:5020/2", message.getFromAddr().toString());
+		TestCase.assertEquals("Never", message.getFromName());
+	}
+}
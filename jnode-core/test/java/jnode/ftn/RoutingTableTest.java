@@ -0,0 +1,122 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jnode.dto.Link;
+import jnode.dto.Route;
+import jnode.ftn.types.FtnAddress;
+import jnode.ftn.types.FtnMessage;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class RoutingTableTest {
+	private static Link link(long id) {
+		Link link = new Link();
+		link.setId(id);
+		return link;
+	}
+
+	private static Route route(long id, String to, String fromName, Link via) {
+		Route route = new Route();
+		route.setId(id);
+		route.setNice(id);
+		route.setToAddr(to);
+		route.setFromName(fromName);
+		route.setRouteVia(via);
+		return route;
+	}
+
+	private static FtnMessage message(String from, String to) {
+		FtnMessage message = new FtnMessage();
+		message.setFromAddr(new FtnAddress("2:5020/1"));
+		message.setFromName(from);
+		message.setToAddr(new FtnAddress(to));
+		message.setToName("Sysop");
+		message.setSubject("test");
+		return message;
+	}
+
+	@Test
+	public void testExactPrefixAndRegex() {
+		Link a = link(1), b = link(2), c = link(3);
+		RoutingTable table = new RoutingTable(Arrays.asList(
+				route(1, "2:5020/841", null, a),
+				route(2, "^2:5030/.*", null, b),
+				route(3, "2:50[0-9]+/.*", null, c)),
+				new ArrayList<Link>());
+
+		TestCase.assertEquals(a, table.match(message("x", "2:5020/841"), null)
+				.getVia());
+		TestCase.assertEquals(b, table.match(message("x", "2:5030/1.2"), null)
+				.getVia());
+		TestCase.assertEquals(c, table.match(message("x", "2:5020/842"), null)
+				.getVia());
+		TestCase.assertNull(table.match(message("x", "1:5020/842"), null)
+				.getVia());
+	}
+
+	@Test
+	public void testLowestNiceWins() {
+		Link a = link(1), b = link(2), c = link(3);
+		RoutingTable table = new RoutingTable(Arrays.asList(
+				route(1, "*", "Robot", a),
+				route(2, ".*", null, b),
+				route(3, "2:5020/841", null, c)),
+				new ArrayList<Link>());
+
+		TestCase.assertEquals(a, table.match(message("Robot", "2:5020/841"),
+				null).getVia());
+		TestCase.assertEquals(b, table.match(message("Sysop", "2:5020/841"),
+				null).getVia());
+	}
+
+	@Test
+	public void testExclude() {
+		Link a = link(1), b = link(2);
+		List<Route> routes = Arrays.asList(route(1, "2:5020/.*", null, a),
+				route(2, "*", null, b));
+		RoutingTable table = new RoutingTable(routes, new ArrayList<Link>());
+
+		TestCase.assertEquals(b, table.match(message("x", "2:5020/841"), a)
+				.getVia());
+		TestCase.assertEquals(a, table.match(message("x", "2:5020/841"), b)
+				.getVia());
+	}
+
+	@Test
+	public void testInvalidMaskNeverMatches() {
+		Link a = link(1), b = link(2);
+		RoutingTable table = new RoutingTable(Arrays.asList(
+				route(1, "2:5020/(", null, a), route(2, "*", null, b)),
+				new ArrayList<Link>());
+
+		TestCase.assertEquals(b, table.match(message("x", "2:5020/841"), null)
+				.getVia());
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class ZipBundleOutputStreamTest {
+
+	private static byte[] packet(int size) {
+		Random random = new Random(size);
+		String[] words = { "SEEN-BY: ", "5020/1 ", "PATH: ", "Hello ",
+				"\r", "jNode ", "AREA:TEST " };
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(size);
+		while (bos.size() < size) {
+			byte[] w = words[random.nextInt(words.length)].getBytes();
+			bos.write(w, 0, w.length);
+			bos.write(random.nextInt(256));
+		}
+		return Arrays.copyOf(bos.toByteArray(), size);
+	}
+
+	private static byte[] roundtrip(byte[] data, int level,
+			ExecutorService deflaters) throws IOException {
+		File file = File.createTempFile("bundle", ".zip");
+		try {
+			FileOutputStream fos = new FileOutputStream(file);
+			ZipBundleOutputStream zos = new ZipBundleOutputStream(
+					fos.getChannel(), fos, "00000001.pkt", level, deflaters);
+			zos.write(data, 0, 1000);
+			zos.write(data[1000]);
+			zos.write(data, 1001, data.length - 1001);
+			zos.close();
+			// и central directory, и local header
+			ZipFile zip = new ZipFile(file);
+			ZipEntry entry = zip.getEntry("00000001.pkt");
+			TestCase.assertEquals(data.length, entry.getSize());
+			TestCase.assertTrue(Arrays.equals(data,
+					read(zip.getInputStream(entry))));
+			zip.close();
+			ZipInputStream zis = new ZipInputStream(new FileInputStream(file));
+			TestCase.assertEquals("00000001.pkt", zis.getNextEntry()
+					.getName());
+			byte[] ret = read(zis);
+			TestCase.assertNull(zis.getNextEntry());
+			zis.close();
+			return ret;
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static byte[] read(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		for (int n; (n = is.read(buf)) > 0;) {
+			bos.write(buf, 0, n);
+		}
+		return bos.toByteArray();
+	}
+
+	@Test
+	public void testSequential() throws IOException {
+		byte[] data = packet(300000);
+		TestCase.assertTrue(Arrays.equals(data,
+				roundtrip(data, Deflater.DEFAULT_COMPRESSION, null)));
+		TestCase.assertTrue(Arrays.equals(data, roundtrip(data, 1, null)));
+	}
+
+	@Test
+	public void testStored() throws IOException {
+		byte[] data = packet(5000);
+		TestCase.assertTrue(Arrays.equals(data,
+				roundtrip(data, ZipBundleOutputStream.STORED, null)));
+	}
+
+	@Test
+	public void testParallel() throws IOException {
+		ExecutorService deflaters = Executors.newFixedThreadPool(4);
+		try {
+			// ровно на границе блока и с хвостом
+			for (int size : new int[] { 2000, 128 * 1024, 1000000 }) {
+				byte[] data = packet(size);
+				TestCase.assertTrue(Arrays.equals(data,
+						roundtrip(data, 6, deflaters)));
+			}
+		} finally {
+			deflaters.shutdown();
+		}
+	}
+
+	@Test
+	public void testParseLevel() {
+		TestCase.assertEquals(ZipBundleOutputStream.STORED,
+				ZipBundleOutputStream.parseLevel("store"));
+		TestCase.assertEquals(0, ZipBundleOutputStream.parseLevel("0"));
+		TestCase.assertEquals(9, ZipBundleOutputStream.parseLevel(" 9 "));
+		TestCase.assertEquals(Deflater.DEFAULT_COMPRESSION,
+				ZipBundleOutputStream.parseLevel(""));
+		TestCase.assertEquals(Deflater.DEFAULT_COMPRESSION,
+				ZipBundleOutputStream.parseLevel("12"));
+	}
+}
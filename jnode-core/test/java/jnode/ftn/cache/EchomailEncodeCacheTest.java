@@ -0,0 +1,120 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jnode.ftn.cache.EchomailEncodeCache.Encoded;
+import jnode.ftn.types.Ftn2D;
+import jnode.ftn.types.Ftn2DSet;
+import jnode.ftn.types.FtnAddress;
+import jnode.ftn.types.FtnMessage;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class EchomailEncodeCacheTest {
+	private static final List<Ftn2D> OURS = Arrays.asList(new Ftn2D(5020,
+			9999));
+
+	private static Encoded encoded() {
+		FtnMessage message = message();
+		Ftn2DSet seenby = Ftn2DSet.of(message.getSeenby());
+		List<Ftn2D> path = message.getPath();
+		message.setSeenby(new ArrayList<Ftn2D>());
+		message.setPath(new ArrayList<Ftn2D>());
+		return new Encoded(message, seenby, path, Ftn2DSet.of(OURS));
+	}
+
+	private static FtnMessage message() {
+		FtnMessage message = new FtnMessage();
+		message.setNetmail(false);
+		message.setArea("TEST.AREA");
+		message.setFromAddr(new FtnAddress("2:5020/9999"));
+		message.setToAddr(new FtnAddress("2:5020/9999"));
+		message.setFromName("Вася Пупкин");
+		message.setToName("All");
+		message.setSubject("Привет");
+		message.setDate(new Date(1234567890000L));
+		message.setMsgid("2:5020/1 12345678");
+		message.setText("Привет\nвсем\n--- test\n * Origin: x (2:5020/1)");
+		message.setSeenby(new ArrayList<>(Arrays.asList(new Ftn2D(5020, 1),
+				new Ftn2D(463, 68))));
+		message.setPath(new ArrayList<>(Arrays.asList(new Ftn2D(5020, 1))));
+		return message;
+	}
+
+	/**
+	 * То, что раньше писал FtnTosser для каждого линка
+	 */
+	private static byte[] reference(FtnAddress to, Ftn2D link2d) {
+		FtnMessage message = message();
+		Set<Ftn2D> seenby = new HashSet<>(message.getSeenby());
+		seenby.add(link2d);
+		List<Ftn2D> path = message.getPath();
+		for (Ftn2D me : OURS) {
+			seenby.add(me);
+			if (!path.contains(me)) {
+				path.add(me);
+			}
+		}
+		message.setToAddr(to);
+		message.setSeenby(new ArrayList<>(seenby));
+		message.setPath(path);
+		return message.pack();
+	}
+
+	private static byte[] encoded(Encoded encoded, FtnAddress to)
+			throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		encoded.write(bos, to, Subscribers.EMPTY);
+		return bos.toByteArray();
+	}
+
+	@Test
+	public void testSameBytesForEveryLink() throws Exception {
+		Encoded encoded = encoded();
+		for (String address : new String[] { "2:5020/2", "2:463/68",
+				"2:5030/1.5" }) {
+			FtnAddress to = new FtnAddress(address);
+			Ftn2D link2d = new Ftn2D(to.getNet(), to.getNode());
+			TestCase.assertTrue(address, Arrays.equals(reference(to, link2d),
+					encoded(encoded, to)));
+		}
+	}
+
+	@Test
+	public void testSeenBy() {
+		Encoded encoded = encoded();
+		TestCase.assertTrue(encoded.isSeenBy(463, 68));
+		TestCase.assertFalse(encoded.isSeenBy(5020, 9999));
+		TestCase.assertFalse(encoded.isSeenBy(5020, 2));
+	}
+}
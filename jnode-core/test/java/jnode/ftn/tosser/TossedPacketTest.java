@@ -0,0 +1,165 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.tosser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import jnode.main.MainHandler;
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class TossedPacketTest {
+	private File file;
+
+	@BeforeClass
+	public static void setUpClass() {
+		if (MainHandler.getCurrentInstance() == null) {
+			new MainHandler(new Properties());
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("sinb", ".pkt");
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(new byte[100]);
+		fos.close();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		TossedPacket.getCheckpoint(file).delete();
+		new File(file.getAbsolutePath() + ".bad").delete();
+	}
+
+	@Test
+	public void testCheckpointFollowsCommitedMessages() {
+		TossedPacket packet = new TossedPacket(file, true, null);
+		int first = packet.add();
+		int second = packet.add();
+		int third = packet.add();
+		packet.checkpoint();
+		TestCase.assertFalse(TossedPacket.getCheckpoint(file).exists());
+
+		packet.done(third);
+		packet.checkpoint();
+		TossedPacket resumed = new TossedPacket(file, true, null);
+		TestCase.assertEquals(1, resumed.resume());
+		TestCase.assertFalse(resumed.isWritten(first));
+		TestCase.assertTrue(resumed.isWritten(third));
+
+		packet.done(first);
+		packet.checkpoint();
+		TestCase.assertEquals(2, new TossedPacket(file, true, null).resume());
+
+		packet.done(second);
+		packet.checkpoint();
+		TestCase.assertEquals(3, new TossedPacket(file, true, null).resume());
+
+		packet.done();
+		TestCase.assertFalse(file.exists());
+		TestCase.assertFalse(TossedPacket.getCheckpoint(file).exists());
+	}
+
+	@Test
+	public void testRetryKeepsPacket() {
+		TossedPacket packet = new TossedPacket(file, true, null);
+		int first = packet.add();
+		int second = packet.add();
+		int third = packet.add();
+		packet.done(first);
+		packet.retry("Database error");
+		packet.done();
+		// записано уже после ошибки в другом batch'е
+		packet.done(third);
+		packet.done();
+		TestCase.assertTrue(file.exists());
+
+		TossedPacket resumed = new TossedPacket(file, true, null);
+		TestCase.assertEquals(2, resumed.resume());
+		TestCase.assertTrue(resumed.isWritten(resumed.add()));
+		int index = resumed.add();
+		TestCase.assertEquals(second, index);
+		TestCase.assertFalse(resumed.isWritten(index));
+		resumed.done(index);
+		resumed.checkpoint();
+		TestCase.assertEquals(3, new TossedPacket(file, true, null).resume());
+	}
+
+	@Test
+	public void testRetryLimit() {
+		for (int i = 1; i < 10; i++) {
+			TossedPacket packet = new TossedPacket(file, true, null);
+			packet.retry("Database error");
+			packet.done();
+			TestCase.assertTrue(file.exists());
+		}
+		TossedPacket packet = new TossedPacket(file, true, null);
+		packet.retry("Database error");
+		packet.done();
+		TestCase.assertFalse(file.exists());
+		TestCase.assertFalse(TossedPacket.getCheckpoint(file).exists());
+		TestCase.assertTrue(new File(file.getAbsolutePath() + ".bad").exists());
+	}
+
+	@Test
+	public void testBundleParts() {
+		TossedPacket bundle = new TossedPacket(file, true, null);
+		TossedPacket first = new TossedPacket(bundle, 1);
+		bundle.add();
+		first.done(first.add());
+		first.done();
+		TossedPacket second = new TossedPacket(bundle, 2);
+		bundle.add();
+		second.add();
+		second.retry("Database error");
+		second.done();
+		second.done();
+		bundle.done();
+		TestCase.assertTrue(file.exists());
+
+		TossedPacket resumed = new TossedPacket(file, true, null);
+		TestCase.assertEquals(1, new TossedPacket(resumed, 1).resume());
+		TestCase.assertEquals(0, new TossedPacket(resumed, 2).resume());
+	}
+
+	@Test
+	public void testChangedPacketStartsOver() throws IOException {
+		TossedPacket packet = new TossedPacket(file, true, null);
+		packet.done(packet.add());
+		packet.checkpoint();
+		FileOutputStream fos = new FileOutputStream(file, true);
+		fos.write(1);
+		fos.close();
+		TestCase.assertEquals(0, new TossedPacket(file, true, null).resume());
+	}
+}
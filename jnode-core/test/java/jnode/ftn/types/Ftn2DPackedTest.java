@@ -0,0 +1,102 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import jnode.ftn.FtnTools;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class Ftn2DPackedTest {
+	private static final String SEENBY = "5020/1 2 9999 463/68 0 5020/2 450/1024 32767 12345/65535";
+
+	@Test
+	public void testSeenBy() {
+		Ftn2DSet set = Ftn2DSet.parse(SEENBY);
+		byte[] data = Ftn2DPacked.pack(set);
+		TestCase.assertEquals(set.toString(),
+				Ftn2DSet.of(Ftn2DPacked.unpack(data)).toString());
+		// повтор 5020/2 в множестве не хранится
+		TestCase.assertEquals(
+				"450/1024 450/32767 463/0 463/68 5020/1 5020/2 5020/9999 12345/65535",
+				Ftn2DPacked.toString(data));
+	}
+
+	@Test
+	public void testCompact() {
+		List<Ftn2D> seenby = new ArrayList<>();
+		for (int i = 1; i < 200; i += 3) {
+			seenby.add(new Ftn2D(5020, i * 17));
+			seenby.add(new Ftn2D(463, i));
+		}
+		String text = FtnTools.write2D(seenby, true);
+		byte[] data = Ftn2DPacked.pack(Ftn2DSet.of(seenby));
+		TestCase.assertEquals(text, Ftn2DPacked.toString(data));
+		TestCase.assertTrue(data.length * 3 < text.length());
+	}
+
+	@Test
+	public void testPathOrder() {
+		Random random = new Random(5020);
+		for (int i = 0; i < 1000; i++) {
+			List<Ftn2D> path = new ArrayList<>();
+			for (int j = random.nextInt(20); j > 0; j--) {
+				path.add(new Ftn2D(random.nextInt(70000) - 100, random
+						.nextBoolean() ? random.nextInt(70000) : random
+						.nextInt()));
+			}
+			byte[] data = Ftn2DPacked.pack(path);
+			TestCase.assertEquals(path, Ftn2DPacked.toList(data));
+			TestCase.assertEquals(FtnTools.write2D(path, false),
+					Ftn2DPacked.toString(data));
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		byte[] data = Ftn2DPacked.pack(new ArrayList<Ftn2D>());
+		TestCase.assertEquals(2, data.length);
+		TestCase.assertEquals(0, Ftn2DPacked.unpack(data).length);
+		TestCase.assertEquals(0, Ftn2DPacked.unpack(null).length);
+		TestCase.assertEquals("", Ftn2DPacked.toString(data));
+	}
+
+	@Test
+	public void testBroken() {
+		byte[] data = Ftn2DPacked.pack(Ftn2DSet.parse(SEENBY));
+		for (byte[] bad : new byte[][] { Arrays.copyOf(data, data.length - 1),
+				{ 2, 0 }, { 1, (byte) 0xff } }) {
+			try {
+				Ftn2DPacked.unpack(bad);
+				TestCase.fail(Arrays.toString(bad));
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.types;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import jnode.ftn.FtnTools;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class Ftn2DSetTest {
+	private static final String SEENBY = "5020/1 2 9999 463/68 0 5020/2 450/1024 32767 12345/65535";
+
+	@Test
+	public void testParseLikeRead2D() {
+		Ftn2DSet set = Ftn2DSet.parse(SEENBY);
+		TestCase.assertEquals(Ftn2DSet.of(FtnTools.read2D(SEENBY)).toString(),
+				set.toString());
+		TestCase.assertEquals(8, set.size());
+		TestCase.assertTrue(set.contains(463, 0));
+		TestCase.assertTrue(set.contains(12345, 65535));
+		TestCase.assertFalse(set.contains(5020, 68));
+	}
+
+	@Test
+	public void testParseBad() {
+		TestCase.assertEquals(0, Ftn2DSet.parse(null).size());
+		TestCase.assertEquals(0, Ftn2DSet.parse(" ").size());
+		TestCase.assertEquals("[5020/1, 5020/2]",
+				Ftn2DSet.parse("5020/1  x 1 5020/2").toString());
+	}
+
+	@Test
+	public void testUnionAndWith() {
+		Ftn2DSet a = Ftn2DSet.parse("5020/1 2 463/68");
+		Ftn2DSet b = Ftn2DSet.parse("5020/2 3 2:1");
+		TestCase.assertEquals("[463/68, 5020/1, 5020/2, 5020/3]", a.union(b)
+				.toString());
+		TestCase.assertSame(a, a.with(5020, 2));
+		TestCase.assertEquals("[463/68, 5020/1, 5020/2, 5030/1]",
+				a.with(5030, 1).toString());
+		TestCase.assertSame(a, a.union(Ftn2DSet.EMPTY));
+	}
+
+	@Test
+	public void testWriteSeenBy() {
+		List<Ftn2D> list = FtnTools.read2D(SEENBY + " 5021/1 2 3 4 5 6 7 8 9 "
+				+ "10 11 12 13 14 15 16 17 18 19 20 21 22 23 24 25 26 27 28");
+		String expected = FtnTools.writeSeenBy(new ArrayList<>(
+				new HashSet<>(list)));
+		TestCase.assertEquals(expected,
+				FtnTools.writeSeenBy(Ftn2DSet.of(list)));
+		TestCase.assertTrue(expected.indexOf('\n') < expected.length() - 1);
+	}
+}
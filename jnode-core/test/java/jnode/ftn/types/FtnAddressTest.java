@@ -20,13 +20,92 @@
 
 package jnode.ftn.types;
 
+import java.util.Properties;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import jnode.main.MainHandler;
 import junit.framework.TestCase;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 /**
  * @author Kirill Temnenkov (ktemnenkov@intervale.ru)
  */
 public class FtnAddressTest {
+    private static final String CHARS = "0123456789012345:/./.@ \tz";
+
+    @BeforeClass
+    public static void setUp() {
+        if (MainHandler.getCurrentInstance() == null) {
+            new MainHandler(new Properties());
+        }
+    }
+
+    /**
+     * Разбор через fidonetAddress, как было раньше
+     */
+    private static String regex(String addr) {
+        Matcher m = FtnAddress.fidonetAddress.matcher(addr);
+        if (!m.matches()) {
+            return "invalid";
+        }
+        int zone = (m.group(1) != null) ? Integer.parseInt(m.group(1))
+                : MainHandler.getCurrentInstance().getInfo().getZone();
+        int point = (m.group(4) != null) ? Integer.parseInt(m.group(4)) : 0;
+        // геттеры отдают short
+        return (short) zone + " " + (short) Integer.parseInt(m.group(2)) + " "
+                + (short) Integer.parseInt(m.group(3)) + " " + (short) point;
+    }
+
+    private static String parsed(String addr) {
+        try {
+            FtnAddress a = new FtnAddress(addr);
+            return a.getZone() + " " + a.getNet() + " " + a.getNode() + " "
+                    + a.getPoint();
+        } catch (NumberFormatException e) {
+            return "invalid";
+        }
+    }
+
+    @Test
+    public void testParseLikeRegex() {
+        String[] samples = { "2:5020/828.17", "2:5020/828", "5020/828", "1/2",
+                ":5020/1", "2:5020/1.0@fidonet", "2:5020/123456",
+                "2:5020/12345.123456", "2:5020/1 ", "2:5020/1.", "12:5020/1",
+                "2:/1", "2:5020/", "", "/1", "2:5020/1@", "0:0/0.0" };
+        for (String addr : samples) {
+            TestCase.assertEquals(addr, regex(addr), parsed(addr));
+        }
+        Random random = new Random(5020);
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(16); j > 0; j--) {
+                sb.append(CHARS.charAt(random.nextInt(CHARS.length())));
+            }
+            String addr = sb.toString();
+            TestCase.assertEquals(addr, regex(addr), parsed(addr));
+        }
+    }
+
+    @Test
+    public void testValueOf() {
+        FtnAddress a = FtnAddress.valueOf("2:5020/828.17");
+        TestCase.assertSame(a, FtnAddress.valueOf("2:5020/828.17"));
+        TestCase.assertEquals(new FtnAddress("2:5020/828.17"), a);
+        TestCase.assertEquals(new FtnAddress(2, 5020, 828, 17).hashCode(),
+                a.hashCode());
+        TestCase.assertEquals("2:5020/828.17", a.toString());
+        try {
+            a.setPoint(0);
+            TestCase.fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        FtnAddress b = a.clone();
+        b.setPoint(0);
+        TestCase.assertEquals("2:5020/828", b.toString());
+        TestCase.assertEquals("2:5020/828.17", a.toString());
+    }
     @Test
     public void testToString() throws Exception {
         FtnAddress ftnAddress = new FtnAddress(2, 5020, 828, 17 );
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.types;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+import jnode.core.ConcurrentDateFormatAccess;
+import jnode.ftn.FtnTools;
+import jnode.install.DefaultVersion;
+import jnode.main.MainHandler;
+import junit.framework.TestCase;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Кодирование сверяется со старым, через String.format и getBytes
+ * 
+ * @author agent
+ */
+public class FtnMessagePackTest {
+	private static final ConcurrentDateFormatAccess MESSAGE_DATE = new ConcurrentDateFormatAccess(
+			"dd MMM yy  HH:mm:ss", Locale.US);
+	private static final ConcurrentDateFormatAccess PKT_DATE = new ConcurrentDateFormatAccess(
+			"yyyy MM dd HH mm ss", Locale.US);
+	private static final String[] WORDS = { "Привет", "hello", "\n", "\n",
+			"ёЁ№", " ", "\t", "░▒", "€", "😀", "\ud83d",
+			"SEEN-BY: 1/2" };
+
+	@BeforeClass
+	public static void setUp() {
+		if (MainHandler.getCurrentInstance() == null) {
+			new MainHandler(new Properties());
+		}
+	}
+
+	private static byte[] legacy(FtnMessage m) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(bos);
+		os.write(new byte[] { 2, 0 });
+		os.writeShort(FtnTools.revShort(m.getFromAddr().getNode()));
+		os.writeShort(FtnTools.revShort(m.getToAddr().getNode()));
+		os.writeShort(FtnTools.revShort(m.getFromAddr().getNet()));
+		os.writeShort(FtnTools.revShort(m.getToAddr().getNet()));
+		if (m.isNetmail()) {
+			os.writeShort(FtnTools.revShort((short) m.getAttribute()));
+		} else {
+			os.write(new byte[] { 0, 0 });
+		}
+		os.write(new byte[] { 0, 0 });
+		os.write(FtnTools.substr(MESSAGE_DATE.format(m.getDate()), 19));
+		os.write(0);
+		os.write(FtnTools.substr(m.getToName(), 35));
+		os.write(0);
+		os.write(FtnTools.substr(m.getFromName(), 35));
+		os.write(0);
+		os.write(FtnTools.substr(m.getSubject(), 71));
+		os.write(0);
+		if (!m.isNetmail()) {
+			os.writeBytes(String.format("AREA:%s\r", m.getArea()));
+		} else {
+			os.writeBytes(String.format("\001INTL %s %s\r", m.getToAddr()
+					.intl(), m.getFromAddr().intl()));
+			os.writeBytes(m.getFromAddr().fmpt());
+			os.writeBytes(m.getToAddr().topt());
+		}
+		StringBuilder sb = new StringBuilder();
+		if (m.getMsgid() != null) {
+			os.writeBytes(String.format("\001MSGID: %s\r", m.getMsgid()));
+		}
+		sb.append(m.getText());
+		if (sb.charAt(sb.length() - 1) != '\n') {
+			sb.append('\n');
+		}
+		if (!m.isNetmail()) {
+			sb.append(FtnTools.writeSeenBy(m.getSeenby()));
+			sb.append(FtnTools.writePath(m.getPath()));
+		}
+		os.write(sb.toString().replaceAll("\n", "\r")
+				.getBytes(FtnTools.CP_866));
+		os.write(0);
+		return bos.toByteArray();
+	}
+
+	private static byte[] legacy(FtnPkt pkt) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(bos);
+		os.writeShort(FtnTools.revShort(pkt.getFromAddr().getNode()));
+		os.writeShort(FtnTools.revShort(pkt.getToAddr().getNode()));
+		int n = 0;
+		for (String d : PKT_DATE.format(pkt.getDate()).split(" ")) {
+			short s = new Short(d);
+			if (n == 1) {
+				s--;
+			}
+			os.writeShort(FtnTools.revShort(s));
+			n++;
+		}
+		os.write(new byte[] { 0, 0, 2, 0 });
+		os.writeShort(FtnTools.revShort(pkt.getFromAddr().getNet()));
+		os.writeShort(FtnTools.revShort(pkt.getToAddr().getNet()));
+		os.write(new byte[] { (byte) 255,
+				DefaultVersion.getSelf().getMajorVersion().byteValue() });
+		os.write(FtnTools.substr(pkt.getPassword(), 8));
+		for (int i = pkt.getPassword().length(); i < 8; i++) {
+			os.write(0);
+		}
+		os.writeShort(FtnTools.revShort(pkt.getFromAddr().getZone()));
+		os.writeShort(FtnTools.revShort(pkt.getToAddr().getZone()));
+		os.write(new byte[] { 0, 0, 0, 1, 19,
+				DefaultVersion.getSelf().getMinorVersion().byteValue(), 1, 0 });
+		os.writeShort(FtnTools.revShort(pkt.getFromAddr().getZone()));
+		os.writeShort(FtnTools.revShort(pkt.getToAddr().getZone()));
+		os.writeShort(FtnTools.revShort(pkt.getFromAddr().getPoint()));
+		os.writeShort(FtnTools.revShort(pkt.getToAddr().getPoint()));
+		os.write(new byte[] { 0, 0, 0, 0 });
+		return bos.toByteArray();
+	}
+
+	private static String random(Random random, int words) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static FtnMessage message(Random random) {
+		FtnMessage m = new FtnMessage();
+		m.setNetmail(random.nextBoolean());
+		m.setFromAddr(new FtnAddress("2:5020/" + random.nextInt(70000) + "."
+				+ random.nextInt(3)));
+		m.setToAddr(new FtnAddress("1:463/" + random.nextInt(100) + "."
+				+ random.nextInt(3)));
+		m.setAttribute(random.nextInt(70000));
+		m.setDate(new Date(random.nextLong() % 4000000000000L));
+		m.setFromName(random(random, random.nextInt(20)));
+		m.setToName(random(random, random.nextInt(20)));
+		m.setSubject(random(random, random.nextInt(40)));
+		m.setArea("AREA" + random.nextInt(100));
+		if (random.nextBoolean()) {
+			m.setMsgid("2:5020/1 " + Integer.toHexString(random.nextInt()));
+		}
+		m.setText(random(random, 1 + random.nextInt(50)));
+		List<Ftn2D> seenby = new ArrayList<>();
+		List<Ftn2D> path = new ArrayList<>();
+		for (int i = random.nextInt(30); i > 0; i--) {
+			seenby.add(new Ftn2D(random.nextInt(6000), random.nextInt(6000)));
+			path.add(new Ftn2D(random.nextInt(6000), random.nextInt(6000)));
+		}
+		m.setSeenby(seenby);
+		m.setPath(path);
+		return m;
+	}
+
+	@Test
+	public void testMessageLikeLegacy() throws IOException {
+		Random random = new Random(866);
+		for (int i = 0; i < 3000; i++) {
+			FtnMessage m = message(random);
+			byte[] expected = legacy(m);
+			TestCase.assertTrue(m.toString(),
+					Arrays.equals(expected, m.pack()));
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			m.write(bos);
+			TestCase.assertTrue(Arrays.equals(expected, bos.toByteArray()));
+		}
+	}
+
+	@Test
+	public void testPktLikeLegacy() throws IOException {
+		Random random = new Random(5020);
+		for (int i = 0; i < 1000; i++) {
+			FtnPkt pkt = new FtnPkt(new FtnAddress("2:5020/"
+					+ random.nextInt(70000) + "." + random.nextInt(3)),
+					new FtnAddress("1:463/68"), random.nextBoolean() ? "pw"
+							: "password12", new Date(
+							random.nextLong() % 4000000000000L));
+			TestCase.assertTrue(Arrays.equals(legacy(pkt), pkt.pack()));
+		}
+	}
+
+	@Test
+	public void testCyrillicArea() {
+		FtnMessage m = new FtnMessage();
+		m.setNetmail(false);
+		m.setFromAddr(new FtnAddress("2:5020/1"));
+		m.setToAddr(new FtnAddress("2:5020/2"));
+		m.setDate(new Date());
+		m.setFromName("a");
+		m.setToName("b");
+		m.setSubject("c");
+		m.setArea("ЭХА");
+		m.setText("text\n");
+		m.setSeenby(new ArrayList<Ftn2D>());
+		m.setPath(new ArrayList<Ftn2D>());
+		// старое кодирование теряло кириллицу в AREA
+		TestCase.assertTrue(new String(m.pack(), FtnTools.CP_866)
+				.contains("AREA:ЭХА\r"));
+	}
+}
@@ -0,0 +1,375 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.ftn.types;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jnode.ftn.FtnTools;
+import jnode.ftn.exception.LastMessageException;
+import jnode.main.MainHandler;
+import junit.framework.TestCase;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Разбор сообщения сверяется со старым разбором на регулярках
+ * 
+ * @author agent
+ */
+public class FtnMessageUnpackTest {
+	private static final Charset CP866 = Charset.forName("CP866");
+	private static final String[] LINES = { "AREA:TEST", "AREA:", "AREA:A B",
+			"\001MSGID: 2:5020/1 12345678", "\001MSGID: ", "\001PID: x",
+			"\001INTL 2:5020/2 2:5020/1", "\001TOPT 3", "\001FMPT 7",
+			"\001TZUTC: 0300", "\001", "Hello", "", " ", "\t",
+			" * Origin: test (2:5020/1.5)", " * Origin: x 1:2/3 bad 2:5020/9",
+			" * Origin: tab\there (2:5020/1)", " * Origin: ff\f (2:5020/1)",
+			" * Origin:", "SEEN-BY: 5020/1 2 463/68", "SEEN-BY: 5020/3",
+			"\001PATH: 5020/1 463/68", "\001PATH: 5020/5", "--- jNode",
+			"AREA:SECOND" };
+
+	@BeforeClass
+	public static void setUp() {
+		if (MainHandler.getCurrentInstance() == null) {
+			new MainHandler(new Properties());
+		}
+	}
+
+	private static final class Result {
+		boolean netmail;
+		String area, msgid, text, from, to;
+		List<Ftn2D> seenby, path;
+
+		@Override
+		public String toString() {
+			return netmail + "|" + area + "|" + msgid + "|" + from + "|" + to
+					+ "|" + seenby + "|" + path + "|" + text;
+		}
+	}
+
+	/**
+	 * Старый разбор текста письма
+	 */
+	private static Result legacy(String body) {
+		Result r = new Result();
+		FtnAddress fromAddr = new FtnAddress();
+		FtnAddress toAddr = new FtnAddress();
+		fromAddr.setNode(1);
+		fromAddr.setNet(5020);
+		toAddr.setNode(2);
+		toAddr.setNet(5020);
+		String lines[] = body.replaceAll("\n", "").split("\r");
+		StringBuilder builder = new StringBuilder();
+		int linenum = 0;
+		boolean eofKluges = false;
+		boolean preOrigin = false;
+		boolean afterOrigin = false;
+		Pattern netmail = Pattern.compile("^\001(INTL|FMPT|TOPT) (.*)$");
+		Pattern origin = Pattern.compile("^ \\* Origin: ([\\S\\t ]*)$");
+		Pattern msgid = Pattern.compile("^\001MSGID: (.*)$");
+		StringBuilder seenby = new StringBuilder();
+		StringBuilder path = new StringBuilder();
+		for (String line : lines) {
+			linenum++;
+			if (linenum == 1) {
+				if (line.matches("^AREA:\\S+$")) {
+					r.netmail = false;
+					r.area = line.replaceFirst("^AREA:", "");
+					continue;
+				} else {
+					r.netmail = true;
+				}
+			}
+			if (!eofKluges && linenum > 1 && !line.matches("^\001.*$")) {
+				eofKluges = true;
+			}
+			if (!eofKluges) {
+				Matcher m = msgid.matcher(line);
+				if (m.matches()) {
+					r.msgid = m.group(1);
+					if (!r.netmail) {
+						continue;
+					}
+				}
+				if (r.netmail) {
+					m = netmail.matcher(line);
+					if (m.matches()) {
+						String kluge = m.group(1);
+						String arg = m.group(2);
+						switch (kluge) {
+						case "INTL":
+							String tmp[] = arg.split(" ");
+							toAddr = new FtnAddress(tmp[0]);
+							fromAddr = new FtnAddress(tmp[1]);
+							break;
+						case "TOPT":
+							toAddr.setPoint(new Integer(arg));
+							break;
+						case "FMPT":
+							fromAddr.setPoint(new Integer(arg));
+							break;
+						}
+						continue;
+					}
+				}
+				builder.append(line);
+				builder.append('\n');
+			} else if (preOrigin && !r.netmail) {
+				if (line.startsWith("SEEN-BY: ")) {
+					afterOrigin = true;
+				} else {
+					preOrigin = false;
+				}
+				if (afterOrigin) {
+					if (line.startsWith("SEEN-BY: ")) {
+						seenby.append(line);
+						seenby.append('\n');
+					} else if (line.startsWith("\001PATH: ")) {
+						path.append(line);
+						path.append('\n');
+					}
+				}
+			} else {
+				if (!r.netmail) {
+					Matcher m = origin.matcher(line);
+					if (m.matches()) {
+						Pattern f = Pattern
+								.compile("([1-5]?:?\\d{1,5}/\\d{1,5}(\\.\\d{1,5})?)");
+						preOrigin = true;
+						Matcher fm = f.matcher(m.group(1));
+						while (fm.find()) {
+							try {
+								fromAddr = new FtnAddress(fm.group(1));
+							} catch (NumberFormatException e) {
+								// skip
+							}
+						}
+					}
+				}
+				builder.append(line);
+				builder.append('\n');
+			}
+		}
+		r.seenby = FtnTools.readSeenBy(seenby.toString());
+		r.path = FtnTools.readPath(path.toString());
+		r.text = builder.toString();
+		r.from = fromAddr.toString();
+		r.to = toAddr.toString();
+		return r;
+	}
+
+	private static Result decoded(FtnMessage m) {
+		Result r = new Result();
+		r.netmail = m.isNetmail();
+		r.area = m.getArea();
+		r.msgid = m.getMsgid();
+		r.text = m.getText();
+		r.seenby = m.getSeenby();
+		r.path = m.getPath();
+		r.from = m.getFromAddr().toString();
+		r.to = m.getToAddr().toString();
+		return r;
+	}
+
+	private static void header(ByteArrayOutputStream bos) throws Exception {
+		bos.write(new byte[] { 2, 0, 1, 0, 2, 0, (byte) 0x9c, 0x13,
+				(byte) 0x9c, 0x13, 1, 1, 0, 0 });
+		bos.write("01 Jan 15  12:00:00".getBytes(CP866));
+		bos.write(0);
+		bos.write("To".getBytes(CP866));
+		bos.write(0);
+		bos.write("From".getBytes(CP866));
+		bos.write(0);
+		bos.write("Subj".getBytes(CP866));
+		bos.write(0);
+	}
+
+	private static String randomBody(Random random) {
+		StringBuilder sb = new StringBuilder();
+		if (random.nextBoolean()) {
+			sb.append("AREA:TEST\r");
+		}
+		int lines = random.nextInt(12);
+		for (int i = 0; i < lines; i++) {
+			if (random.nextInt(8) == 0) {
+				// любые байты, кроме \0
+				byte[] b = new byte[random.nextInt(20)];
+				for (int j = 0; j < b.length; j++) {
+					b[j] = (byte) (random.nextInt(255) + 1);
+				}
+				sb.append(new String(b, CP866));
+			} else {
+				sb.append(LINES[random.nextInt(LINES.length)]);
+			}
+			switch (random.nextInt(6)) {
+			case 0:
+				sb.append("\r\n");
+				break;
+			case 1:
+				sb.append("\n");
+				break;
+			case 2:
+				break;
+			default:
+				sb.append("\r");
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void check(String body, InputStream is) {
+		String expected;
+		try {
+			expected = legacy(body).toString();
+		} catch (RuntimeException e) {
+			expected = e.getClass().getName();
+		}
+		String actual;
+		try {
+			FtnMessage m = new FtnMessage();
+			m.unpack(is);
+			actual = decoded(m).toString();
+			TestCase.assertEquals("Subj", m.getSubject());
+			TestCase.assertEquals("From", m.getFromName());
+			TestCase.assertEquals(257, m.getAttribute());
+		} catch (LastMessageException e) {
+			throw new AssertionError(e);
+		} catch (RuntimeException e) {
+			actual = e.getClass().getName();
+		}
+		TestCase.assertEquals(body, expected, actual);
+	}
+
+	private static FtnMessage unpack(String body) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		header(bos);
+		bos.write(body.getBytes(CP866));
+		bos.write(0);
+		FtnMessage m = new FtnMessage();
+		m.unpack(new ByteArrayInputStream(bos.toByteArray()));
+		return m;
+	}
+
+	@Test
+	public void testHeaderOnly() throws Exception {
+		FtnMessage m = unpack("AREA:TEST\r\001MSGID: 2:5020/1 1\rtext\r"
+				+ " * Origin: x (2:5020/1.5)\rSEEN-BY: 5020/1\r\001PATH: 5020/x\r");
+		// дуп отбрасывается до разбора текста
+		TestCase.assertEquals("TEST", m.getArea());
+		TestCase.assertEquals("2:5020/1 1", m.getMsgid());
+		TestCase.assertFalse(m.isNetmail());
+		try {
+			m.getText();
+			TestCase.fail();
+		} catch (NumberFormatException e) {
+		}
+	}
+
+	@Test
+	public void testSetBeforeDecode() throws Exception {
+		FtnMessage m = unpack("AREA:TEST\rtext\r * Origin: x (2:5020/1.5)\r"
+				+ "SEEN-BY: 5020/1\r");
+		m.setFromAddr(new FtnAddress("2:5020/7"));
+		m.setText("changed\n");
+		TestCase.assertEquals("2:5020/7", m.getFromAddr().toString());
+		TestCase.assertEquals("changed\n", m.getText());
+		TestCase.assertEquals(1, m.getSeenby().size());
+		TestCase.assertEquals("2:5020/1.5",
+				unpack("AREA:TEST\rtext\r * Origin: x (2:5020/1.5)\r")
+						.getFromAddr().toString());
+	}
+
+	@Test
+	public void testLikeLegacy() throws Exception {
+		Random random = new Random(866);
+		for (int i = 0; i < 5000; i++) {
+			String body = randomBody(random);
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			header(bos);
+			bos.write(body.getBytes(CP866));
+			bos.write(0);
+			check(body, new ByteArrayInputStream(bos.toByteArray()));
+		}
+	}
+
+	@Test
+	public void testStreams() throws Exception {
+		Random random = new Random(5020);
+		String[] bodies = new String[300];
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for (int i = 0; i < bodies.length; i++) {
+			StringBuilder sb = new StringBuilder(randomBody(random));
+			// и длинные, больше куска буфера
+			if (i % 10 == 0) {
+				for (int j = 0; j < 2000; j++) {
+					sb.append("long line\r");
+				}
+			}
+			bodies[i] = sb.toString();
+			header(bos);
+			bos.write(bodies[i].getBytes(CP866));
+			bos.write(0);
+		}
+		bos.write(new byte[] { 0, 0 });
+		byte[] packet = bos.toByteArray();
+		InputStream buffered = new BufferedInputStream(
+				new ByteArrayInputStream(packet));
+		InputStream plain = new FilterInputStream(new ByteArrayInputStream(
+				packet)) {
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+		};
+		for (InputStream is : new InputStream[] { buffered, plain }) {
+			for (String body : bodies) {
+				check(body, is);
+			}
+			try {
+				new FtnMessage().unpack(is);
+				TestCase.fail();
+			} catch (LastMessageException e) {
+				// конец пакета
+			}
+		}
+	}
+
+	@Test
+	public void testCp866() {
+		byte[] all = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			all[i] = (byte) i;
+		}
+		TestCase.assertEquals(new String(all, CP866),
+				Cp866.decode(all, 0, 256));
+	}
+}
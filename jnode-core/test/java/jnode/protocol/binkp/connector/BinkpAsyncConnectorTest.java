@@ -0,0 +1,103 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.protocol.binkp.connector;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Date;
+import java.util.Properties;
+
+import jnode.main.MainHandler;
+import jnode.protocol.binkp.BinkpProtocolTools;
+import jnode.protocol.binkp.types.BinkpFrame;
+import jnode.protocol.io.Message;
+import junit.framework.TestCase;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class BinkpAsyncConnectorTest {
+	private static final int STATE_TRANSFER = 5;
+
+	@BeforeClass
+	public static void setUpClass() {
+		if (MainHandler.getCurrentInstance() == null) {
+			new MainHandler(new Properties());
+		}
+	}
+
+	@Test
+	public void testShortWritesDoNotReadAhead() throws IOException {
+		File file = File.createTempFile("binkp", ".bin");
+		ServerSocketChannel server = ServerSocketChannel.open();
+		try {
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write(new byte[1024 * 1024]);
+			fos.close();
+			server.bind(new InetSocketAddress("127.0.0.1", 0));
+			SocketChannel in = SocketChannel.open(server.getLocalAddress());
+			SocketChannel out = server.accept();
+			try {
+				out.setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+				in.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+				BinkpAsyncConnector connector = new BinkpAsyncConnector(out);
+				connector.connectionState = STATE_TRANSFER;
+				connector.lastTimeout = new Date().getTime();
+				connector.messages.add(new Message(file));
+				connector.startNextFile();
+				int shortWrites = 0;
+				// как на OP_WRITE, но вторая сторона ничего не читает
+				for (int i = 0; i < 200; i++) {
+					connector.checkForMessages();
+					TestCase.assertTrue(connector.frames.size() <= 1);
+					BinkpFrame frame = connector.frames.peekFirst();
+					if (frame == null) {
+						continue;
+					}
+					if (BinkpProtocolTools.write(frame, out)) {
+						connector.frames.removeFirst();
+					} else {
+						shortWrites++;
+					}
+				}
+				TestCase.assertTrue(shortWrites > 0);
+				TestCase.assertEquals(1, connector.frames.size());
+				connector.clearFrames();
+				connector.frames.peekFirst().release();
+				connector.currentInputStream.close();
+			} finally {
+				in.close();
+				out.close();
+			}
+		} finally {
+			server.close();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the jNode FTN Platform Develpoment Team (jNode Team)
+ * under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for 
+ * additional information regarding copyright ownership.  
+ * The jNode Team licenses this file to you under the 
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jnode.protocol.binkp.types;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import jnode.protocol.binkp.BinkpProtocolTools;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class BinkpFrameTest {
+
+	@Test
+	public void testBufferFrameLikeArrayFrame() {
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 7);
+		}
+		ByteBuffer buf = BinkpFrame.allocate(32767);
+		buf.put(data);
+		((Buffer) buf).flip();
+		BinkpFrame frame = new BinkpFrame(buf);
+		ByteBuffer[] buffers = frame.getBuffers();
+		TestCase.assertEquals(2, buffers.length);
+		TestCase.assertEquals(2, buffers[0].remaining());
+		TestCase.assertEquals(data.length, buffers[1].remaining());
+		byte[] expected = new BinkpFrame(data, data.length).getBytes();
+		TestCase.assertTrue(Arrays.equals(expected,
+				frame.getBytes()));
+		TestCase.assertTrue(Arrays.equals(expected,
+				frame.getBytes()));
+	}
+
+	@Test
+	public void testPartialWrite() throws IOException {
+		byte[] data = new byte[32767];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 7);
+		}
+		byte[] expected = new BinkpFrame(data, data.length).getBytes();
+		ServerSocketChannel server = ServerSocketChannel.open();
+		try {
+			server.bind(new InetSocketAddress("127.0.0.1", 0));
+			SocketChannel out = SocketChannel.open(server.getLocalAddress());
+			SocketChannel in = server.accept();
+			try {
+				out.setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+				in.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+				out.configureBlocking(false);
+				ByteBuffer buf = BinkpFrame.allocate(data.length);
+				buf.put(data);
+				((Buffer) buf).flip();
+				BinkpFrame frame = new BinkpFrame(buf);
+				ByteArrayOutputStream received = new ByteArrayOutputStream();
+				ByteBuffer chunk = ByteBuffer.allocate(1024);
+				int writes = 0;
+				while (!BinkpProtocolTools.write(frame, out)) {
+					TestCase.assertTrue(frame.isStarted());
+					writes++;
+					((Buffer) chunk).clear();
+					in.read(chunk);
+					received.write(chunk.array(), 0, chunk.position());
+				}
+				TestCase.assertTrue(writes > 0);
+				while (received.size() < expected.length) {
+					((Buffer) chunk).clear();
+					in.read(chunk);
+					received.write(chunk.array(), 0, chunk.position());
+				}
+				TestCase.assertTrue(Arrays.equals(expected,
+						received.toByteArray()));
+			} finally {
+				out.close();
+				in.close();
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testAllocateLimit() {
+		ByteBuffer buf = BinkpFrame.allocate(1000);
+		TestCase.assertTrue(buf.isDirect());
+		TestCase.assertEquals(1000, buf.remaining());
+		BinkpFrame.free(buf);
+		TestCase.assertEquals(32767, BinkpFrame.allocate(100000).remaining());
+	}
+}
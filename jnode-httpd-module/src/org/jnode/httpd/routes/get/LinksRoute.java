@@ -90,8 +90,8 @@ public class LinksRoute extends Route {
 
 			@Override
 			public int compare(Link o1, Link o2) {
-				FtnAddress a1 = new FtnAddress(o1.getLinkAddress());
-				FtnAddress a2 = new FtnAddress(o2.getLinkAddress());
+				FtnAddress a1 = FtnAddress.valueOf(o1.getLinkAddress());
+				FtnAddress a2 = FtnAddress.valueOf(o2.getLinkAddress());
 				if (a1.getPoint() > 0) {
 					if (a2.getPoint() > 0) {
 						return a1.getPoint() - a2.getPoint();
@@ -24,6 +24,7 @@ import jnode.dto.Link;
 import jnode.event.Notifier;
 import jnode.event.SharedModuleEvent;
 import jnode.ftn.FtnTools;
+import jnode.ftn.RoutingTable;
 import jnode.main.MainHandler;
 import jnode.orm.ORMManager;
 
@@ -58,6 +59,7 @@ public class PointRequestConfirmRoute extends Route {
 						l.setProtocolPort(0);
 						l.setProtocolPassword(pr.getPassword());
 						ORMManager.get(Link.class).save(l);
+						RoutingTable.invalidate();
 						ORMManager.get(PointRequest.class).delete(pr);
 						writeMails(pr);
 						text = "Проверьте вашу почту для получения дальнейших инструкций";
@@ -22,6 +22,7 @@ package org.jnode.httpd.routes.post;
 
 import jnode.dto.Echoarea;
 import jnode.ftn.FtnTools;
+import jnode.ftn.cache.SubscriptionCache;
 import jnode.orm.ORMManager;
 import spark.Request;
 import spark.Response;
@@ -78,6 +79,7 @@ public class EchoareaRoute extends Route {
 							code = "EXISTS";
 						} else {
 							ORMManager.get(Echoarea.class).saveOrUpdate(ea);
+							SubscriptionCache.getSelf().invalidate();
 						}
 					}
 				}
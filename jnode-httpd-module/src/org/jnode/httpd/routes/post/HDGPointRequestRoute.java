@@ -6,6 +6,7 @@ import org.jnode.httpd.dto.PointRequest;
 import jnode.dto.Echoarea;
 import jnode.dto.Link;
 import jnode.ftn.FtnTools;
+import jnode.ftn.RoutingTable;
 import jnode.ftn.types.FtnAddress;
 import jnode.main.MainHandler;
 import jnode.orm.ORMManager;
@@ -76,6 +77,7 @@ public class HDGPointRequestRoute extends Route {
 		link.setProtocolPassword(password);
 		link.setPaketPassword(password);
 		ORMManager.get(Link.class).save(link);
+		RoutingTable.invalidate();
 		// write echomail
 		{
 			String techArea = MainHandler.getCurrentInstance().getProperty(
@@ -26,6 +26,7 @@ import java.net.Socket;
 
 import jnode.dto.Link;
 import jnode.ftn.FtnTools;
+import jnode.ftn.RoutingTable;
 import jnode.ftn.types.FtnAddress;
 import jnode.main.MainHandler;
 import jnode.ndl.FtnNdlAddress;
@@ -131,6 +132,7 @@ public class LinkRequestRoute extends Route {
 						if (l2 == null) {
 							writeGreets(link);
 							ORMManager.get(Link.class).save(link);
+							RoutingTable.invalidate();
 							ORMManager.get(LinkRequest.class).delete(lr);
 							code = "PASSWORD&password=" + password;
 						} else {
@@ -22,6 +22,8 @@ package org.jnode.httpd.routes.post;
 
 import jnode.dto.Link;
 import jnode.ftn.FtnTools;
+import jnode.ftn.RoutingTable;
+import jnode.ftn.cache.SubscriptionCache;
 import jnode.ftn.types.FtnAddress;
 import jnode.orm.ORMManager;
 import spark.Request;
@@ -70,6 +72,8 @@ public class LinkRoute extends Route {
 				l.setProtocolPassword(pass);
 				l.setProtocolAddress(address);
 				ORMManager.get(Link.class).saveOrUpdate(l);
+				RoutingTable.invalidate();
+				SubscriptionCache.getSelf().invalidate();
 			} catch (RuntimeException e) {
 				code = "ERROR";
 			}
@@ -22,6 +22,9 @@ package org.jnode.httpd.routes.post;
 
 import jnode.dto.Link;
 import jnode.dto.LinkOption;
+import jnode.ftn.EchomailCursors;
+import jnode.ftn.cache.LinkOptions;
+import jnode.ftn.cache.SubscriptionCache;
 import jnode.orm.ORMManager;
 import spark.Request;
 import spark.Response;
@@ -41,6 +44,7 @@ public class LinkoptionRoute extends Route {
 				Long lid = Long.valueOf(id);
 				Link link = ORMManager.get(Link.class).getById(lid);
 				if (link != null) {
+					boolean paused = EchomailCursors.isPaused(link);
 					for (String name : req.queryParams()) {
 						if (name.startsWith("_")) {
 							continue;
@@ -64,6 +68,9 @@ public class LinkoptionRoute extends Route {
 							}
 						}
 					}
+					LinkOptions.invalidate();
+					SubscriptionCache.getSelf().invalidate();
+					EchomailCursors.pauseChanged(link, paused);
 				}
 			} catch (RuntimeException e) {
 			}
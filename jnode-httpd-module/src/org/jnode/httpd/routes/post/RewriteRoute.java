@@ -21,6 +21,7 @@
 package org.jnode.httpd.routes.post;
 
 import jnode.dto.Rewrite;
+import jnode.ftn.RewriteEngine;
 import jnode.orm.ORMManager;
 import spark.Request;
 import spark.Response;
@@ -58,6 +59,7 @@ public class RewriteRoute extends Route {
 				Rewrite rew = ORMManager.get(Rewrite.class).getById(id);
 				if (rew != null) {
 					ORMManager.get(Rewrite.class).delete(rew);
+					RewriteEngine.invalidate();
 				}
 			} catch (NumberFormatException e) {
 				e.printStackTrace();
@@ -89,6 +91,7 @@ public class RewriteRoute extends Route {
 				rew.setNew_subject(ns);
 
 				ORMManager.get(Rewrite.class).save(rew);
+				RewriteEngine.invalidate();
 			} catch (RuntimeException e) {
 				e.printStackTrace();
 				code = "ERROR";
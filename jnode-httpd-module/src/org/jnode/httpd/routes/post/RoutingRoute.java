@@ -21,6 +21,7 @@
 package org.jnode.httpd.routes.post;
 
 import jnode.dto.Link;
+import jnode.ftn.RoutingTable;
 import jnode.orm.ORMManager;
 import spark.Request;
 import spark.Response;
@@ -50,6 +51,7 @@ public class RoutingRoute extends Route {
 						.getById(eid);
 				if (del != null) {
 					ORMManager.get(jnode.dto.Route.class).delete(del);
+					RoutingTable.invalidate();
 				}
 			} catch (RuntimeException e) {
 				code = "ERROR";
@@ -67,6 +69,7 @@ public class RoutingRoute extends Route {
 				if (l != null) {
 					route.setRouteVia(l);
 					ORMManager.get(jnode.dto.Route.class).save(route);
+					RoutingTable.invalidate();
 				}
 			} catch (RuntimeException e) {
 				code = "INVALID";
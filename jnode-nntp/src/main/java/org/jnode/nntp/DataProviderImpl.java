@@ -6,11 +6,12 @@ import com.google.common.collect.Lists;
 import jnode.dao.GenericDAO;
 import jnode.dto.Echoarea;
 import jnode.dto.Echomail;
-import jnode.dto.EchomailAwaiting;
 import jnode.dto.Entity;
 import jnode.dto.Link;
 import jnode.dto.Netmail;
 import jnode.dto.Subscription;
+import jnode.ftn.EchomailCursors;
+import jnode.ftn.cache.DupeIndex;
 import jnode.orm.ORMManager;
 import org.jnode.nntp.model.Auth;
 import org.jnode.nntp.model.NewsGroup;
@@ -225,11 +226,12 @@ public class DataProviderImpl implements DataProvider {
 
 	@Override
 	public void post(Auth auth, Echomail echomail) {
-		echomailDao.save(echomail);
-		for (Subscription s : ORMManager.get(Subscription.class).getAnd(
-				"echoarea_id", "=", echomail.getArea())) {
-			ORMManager.get(EchomailAwaiting.class).save(
-					new EchomailAwaiting(s.getLink(), echomail));
+		EchomailCursors.beginWrite();
+		try {
+			echomailDao.save(echomail);
+		} finally {
+			EchomailCursors.endWrite();
 		}
+		DupeIndex.getSelf().add(echomail.getArea(), echomail.getMsgid());
 	}
 }